@@ -0,0 +1,37 @@
+@echo off
+setlocal enabledelayedexpansion
+
+REM -----------------------------------------------------------------------------
+REM UniShare load comparison helper
+REM - Compiles the Java sources
+REM - Runs com.unishare.util.LoadTest against a running backend
+REM
+REM Compare executor modes by starting run-backend.bat with
+REM   set UNISHARE_EXECUTOR_MODE=platform   and then   set UNISHARE_EXECUTOR_MODE=virtual
+REM and running this script with identical arguments against each.
+REM
+REM Usage: load-test.bat [baseUrl] [concurrency] [seconds] [sessionToken^|-] [paths...]
+REM -----------------------------------------------------------------------------
+
+set DRIVER_JAR=lib\postgresql-42.7.3.jar
+set BUILD_DIR=build\classes
+
+if not exist "%BUILD_DIR%" (
+    mkdir "%BUILD_DIR%" >nul
+)
+
+echo Compiling backend...
+set "JAVA_FILES="
+for /f "delims=" %%F in ('dir /b /s src\main\java\*.java') do (
+    set "JAVA_FILES=!JAVA_FILES! %%F"
+)
+
+javac -cp "%DRIVER_JAR%" -d "%BUILD_DIR%" !JAVA_FILES!
+if errorlevel 1 (
+    echo [ERROR] Compilation failed.
+    exit /b 1
+)
+
+java -cp "%BUILD_DIR%;%DRIVER_JAR%" com.unishare.util.LoadTest %*
+
+endlocal
@@ -1,27 +1,33 @@
 package com.unishare;
 
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import com.unishare.controller.AuthController;
+import com.unishare.controller.DownloadEventController;
 import com.unishare.controller.FileController;
 import com.unishare.controller.ModuleController;
 import com.unishare.controller.ModuleSubscriptionController;
 import com.unishare.controller.MonitorController;
 import com.unishare.controller.NotificationController;
 import com.unishare.service.AuthService;
+import com.unishare.service.CacheWarmer;
 import com.unishare.service.DatabaseService;
 import com.unishare.service.FileMetadataService;
 import com.unishare.service.FileService;
+import com.unishare.service.ModuleArchiveService;
 import com.unishare.service.ModuleService;
 import com.unishare.service.DownloadManager;
 import com.unishare.service.ModuleSubscriptionService;
 import com.unishare.service.MonitoringService;
 import com.unishare.service.NotificationService;
 import com.unishare.service.SchemaInitializer;
+import com.unishare.service.UploadScheduler;
+import com.unishare.util.RequestExecutors;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.sql.SQLException;
 import java.time.Instant;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Main server class for UniShare application
@@ -30,6 +36,7 @@ public class UniShareServer {
 
     private static final int PORT = 8080;
     private HttpServer server;
+    private ExecutorService requestExecutor;
 
     public static void main(String[] args) {
         try {
@@ -54,6 +61,7 @@ public class UniShareServer {
             System.out.println("🗄️  Connected to Neon database (latency: " + latency + " ms)");
             SchemaInitializer.initialize(databaseService);
             System.out.println("🛠️  Database schema verified.");
+            databaseService.warmUpPool();
         } catch (SQLException e) {
             System.err.println("❌ Unable to connect to Neon database: " + e.getMessage());
             throw new IOException("Database connection failed", e);
@@ -61,13 +69,31 @@ public class UniShareServer {
 
         // Create services
         FileMetadataService fileMetadataService = new FileMetadataService(databaseService);
-        FileService fileService = new FileService(fileMetadataService);
+        UploadScheduler uploadScheduler = new UploadScheduler();
+        FileService fileService = new FileService(fileMetadataService, uploadScheduler);
         ModuleService moduleService = new ModuleService(databaseService);
+        fileMetadataService.addListener(moduleService);
+        try {
+            moduleService.refresh();
+        } catch (SQLException e) {
+            System.err.println("⚠️ Module catalogue not loaded yet, retrying on first request: " + e.getMessage());
+        }
         ModuleSubscriptionService subscriptionService = new ModuleSubscriptionService(databaseService);
         NotificationService notificationService = new NotificationService(subscriptionService);
         AuthService authService = new AuthService(databaseService);
         DownloadManager downloadManager = new DownloadManager(fileMetadataService);
+        ModuleArchiveService archiveService = new ModuleArchiveService(fileService,
+                downloadManager.getContentCache(), downloadManager.getShaper());
         MonitoringService monitoringService = new MonitoringService(databaseService, Instant.now());
+        monitoringService.registerCache("fileMetadata", fileMetadataService::getCacheStats);
+        monitoringService.registerUploadScheduler(uploadScheduler::getStats);
+        CacheWarmer cacheWarmer = CacheWarmer.isEnabled() && downloadManager.getContentCache() != null
+                ? new CacheWarmer(monitoringService, downloadManager.getContentCache())
+                : null;
+        if (cacheWarmer != null) {
+            monitoringService.registerCacheWarmer(cacheWarmer::getStats);
+            cacheWarmer.start();
+        }
 
         // Create controllers
         FileController fileController = new FileController(
@@ -77,32 +103,37 @@ public class UniShareServer {
                 notificationService,
                 moduleService,
                 monitoringService);
-        ModuleController moduleController = new ModuleController(moduleService, fileService);
+        ModuleController moduleController = new ModuleController(moduleService, fileService, archiveService,
+                authService);
         ModuleSubscriptionController subscriptionController = new ModuleSubscriptionController(subscriptionService,
                 moduleService, authService);
         NotificationController notificationController = new NotificationController(notificationService, authService);
         AuthController authController = new AuthController(authService);
         MonitorController monitorController = new MonitorController(monitoringService);
+        DownloadEventController downloadEventController = new DownloadEventController(downloadManager);
 
         // Register routes
-        server.createContext("/api/upload", fileController);
-        server.createContext("/api/files", fileController);
-        server.createContext("/api/download", fileController);
-        server.createContext("/api/download-status", fileController);
-        server.createContext("/api/download-file", fileController);
-        server.createContext("/api/download-stats", fileController);
-        server.createContext("/api/download-cancel", fileController);
-        server.createContext("/api/modules", moduleController);
-        server.createContext("/api/subscriptions", subscriptionController);
-        server.createContext("/api/notifications", notificationController);
-        server.createContext("/api/auth/login", authController);
-        server.createContext("/api/auth/logout", authController);
-        server.createContext("/api/auth/register", authController);
-        server.createContext("/api/auth/me", authController);
-        server.createContext("/api/monitor", monitorController);
-
-        // Set thread pool
-        server.setExecutor(Executors.newFixedThreadPool(10));
+        register(server, "/api/upload", fileController);
+        register(server, "/api/files", fileController);
+        register(server, "/api/download", fileController);
+        register(server, "/api/download-status", fileController);
+        register(server, "/api/download-events", downloadEventController);
+        register(server, "/api/download-file", fileController);
+        register(server, "/api/download-stats", fileController);
+        register(server, "/api/download-limits", fileController);
+        register(server, "/api/download-cancel", fileController);
+        register(server, "/api/modules", moduleController);
+        register(server, "/api/subscriptions", subscriptionController);
+        register(server, "/api/notifications", notificationController);
+        register(server, "/api/auth/login", authController);
+        register(server, "/api/auth/logout", authController);
+        register(server, "/api/auth/register", authController);
+        register(server, "/api/auth/me", authController);
+        register(server, "/api/monitor", monitorController);
+
+        // Set request executor (virtual threads by default, see UNISHARE_EXECUTOR_MODE)
+        requestExecutor = RequestExecutors.fromConfig();
+        server.setExecutor(requestExecutor);
 
         // Start server
         server.start();
@@ -116,16 +147,35 @@ public class UniShareServer {
         // Keep server running
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\n🛑 Shutting down UniShare Server...");
+            downloadEventController.shutdown();
             downloadManager.shutdown();
+            archiveService.shutdown();
+            if (cacheWarmer != null) {
+                cacheWarmer.shutdown();
+            }
+            uploadScheduler.shutdown();
             server.stop(0);
+            requestExecutor.shutdown();
+            databaseService.shutdown();
             System.out.println("✅ Server stopped successfully!");
         }));
     }
 
+    /**
+     * Creates a context whose exchanges are answered with 503 when the request
+     * executor sheds them (see {@link RequestExecutors}).
+     */
+    private static void register(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, handler).getFilters().add(RequestExecutors.overloadFilter());
+    }
+
     public void stop() {
         if (server != null) {
             server.stop(0);
         }
+        if (requestExecutor != null) {
+            requestExecutor.shutdown();
+        }
     }
 }
 // netstat -ano | findstr :8080
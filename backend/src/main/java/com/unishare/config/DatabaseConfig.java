@@ -25,6 +25,23 @@ public final class DatabaseConfig {
         // Utility class
     }
 
+    /**
+     * Reads connection pool tuning from the environment, falling back to defaults
+     * suited to Neon's pooled endpoint.
+     */
+    public static PoolSettings loadPoolSettings() {
+        int maxSize = ServerConfig.readPositiveInt("UNISHARE_DB_POOL_MAX", 10);
+        int minSize = Math.min(ServerConfig.readPositiveInt("UNISHARE_DB_POOL_MIN", 2), maxSize);
+        return new PoolSettings(
+                minSize,
+                maxSize,
+                ServerConfig.readPositiveInt("UNISHARE_DB_POOL_TIMEOUT_MS", 10_000),
+                ServerConfig.readPositiveInt("UNISHARE_DB_POOL_IDLE_TIMEOUT_MS", 600_000),
+                ServerConfig.readPositiveInt("UNISHARE_DB_POOL_MAX_LIFETIME_MS", 1_800_000),
+                ServerConfig.readPositiveInt("UNISHARE_DB_POOL_LEAK_THRESHOLD_MS", 60_000),
+                ServerConfig.readPositiveInt("UNISHARE_DB_STATEMENT_CACHE_SIZE", 64));
+    }
+
     public static DatabaseCredentials loadCredentials() {
         String rawUrl = System.getenv(DEFAULT_ENV_VARIABLE);
 
@@ -113,5 +130,59 @@ public final class DatabaseConfig {
             return properties;
         }
     }
-}
 
+    /**
+     * Connection pool sizing and timeouts. All durations are in milliseconds.
+     */
+    public static final class PoolSettings {
+        private final int minSize;
+        private final int maxSize;
+        private final long connectionTimeoutMs;
+        private final long idleTimeoutMs;
+        private final long maxLifetimeMs;
+        private final long leakDetectionThresholdMs;
+        private final int statementCacheSize;
+
+        public PoolSettings(int minSize, int maxSize, long connectionTimeoutMs, long idleTimeoutMs,
+                long maxLifetimeMs, long leakDetectionThresholdMs, int statementCacheSize) {
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.connectionTimeoutMs = connectionTimeoutMs;
+            this.idleTimeoutMs = idleTimeoutMs;
+            this.maxLifetimeMs = maxLifetimeMs;
+            this.leakDetectionThresholdMs = leakDetectionThresholdMs;
+            this.statementCacheSize = statementCacheSize;
+        }
+
+        public int minSize() {
+            return minSize;
+        }
+
+        public int maxSize() {
+            return maxSize;
+        }
+
+        public long connectionTimeoutMs() {
+            return connectionTimeoutMs;
+        }
+
+        public long idleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public long maxLifetimeMs() {
+            return maxLifetimeMs;
+        }
+
+        public long leakDetectionThresholdMs() {
+            return leakDetectionThresholdMs;
+        }
+
+        /**
+         * Prepared statements cached per pooled connection, keyed by SQL text.
+         */
+        public int statementCacheSize() {
+            return statementCacheSize;
+        }
+    }
+}
@@ -9,6 +9,13 @@ public class ServerConfig {
     public static final String UPLOAD_DIR = "uploads";
     public static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
     public static final int MAX_CONCURRENT_UPLOADS = 5;
+
+    // Request execution settings
+    public static final String EXECUTOR_MODE_ENV = "UNISHARE_EXECUTOR_MODE";
+    public static final String PLATFORM_THREADS_ENV = "UNISHARE_PLATFORM_THREADS";
+    public static final String PLATFORM_QUEUE_ENV = "UNISHARE_PLATFORM_QUEUE";
+    public static final int DEFAULT_PLATFORM_THREADS = 32;
+    public static final int DEFAULT_PLATFORM_QUEUE = 256;
     
     // CORS settings
     public static final String ALLOWED_ORIGINS = "*";
@@ -24,4 +31,54 @@ public class ServerConfig {
     public static final String[] AVAILABLE_MODULES = {
         "IN3111", "CS101", "MATH201", "PHYS202", "CHEM103"
     };
+
+    /**
+     * Request executor mode, either {@code virtual} (one virtual thread per exchange)
+     * or {@code platform} (bounded pool of platform threads). Defaults to {@code virtual}.
+     */
+    public static String getExecutorMode() {
+        String mode = System.getenv(EXECUTOR_MODE_ENV);
+        if (mode == null || mode.isBlank()) {
+            return "virtual";
+        }
+        return mode.trim().toLowerCase();
+    }
+
+    public static int getPlatformThreads() {
+        return readPositiveInt(PLATFORM_THREADS_ENV, DEFAULT_PLATFORM_THREADS);
+    }
+
+    public static int getPlatformQueueCapacity() {
+        return readPositiveInt(PLATFORM_QUEUE_ENV, DEFAULT_PLATFORM_QUEUE);
+    }
+
+    // Comma-separated emails of users allowed to change runtime settings
+    public static final String ADMIN_EMAILS_ENV = "UNISHARE_ADMIN_EMAILS";
+
+    public static boolean isAdmin(String email) {
+        String raw = System.getenv(ADMIN_EMAILS_ENV);
+        if (email == null || raw == null || raw.isBlank()) {
+            return false;
+        }
+        for (String admin : raw.split(",")) {
+            if (admin.trim().equalsIgnoreCase(email)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static int readPositiveInt(String envVariable, int defaultValue) {
+        String raw = System.getenv(envVariable);
+        if (raw == null || raw.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(raw.trim());
+            return value > 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            System.err.println("⚠️ Ignoring invalid " + envVariable + "=" + raw);
+            return defaultValue;
+        }
+    }
 }
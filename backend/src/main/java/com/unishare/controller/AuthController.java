@@ -4,6 +4,7 @@ import com.unishare.model.User;
 import com.unishare.service.AuthService;
 import com.unishare.service.AuthService.AuthenticationException;
 import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
 import com.unishare.util.JsonUtils;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -170,13 +171,7 @@ public class AuthController implements HttpHandler {
     }
 
     private void sendJson(HttpExchange exchange, int statusCode, Map<String, ?> payload) throws IOException {
-        CORSFilter.addCORSHeaders(exchange);
-        String json = JsonUtils.toJson(payload);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(statusCode, bytes.length);
-        exchange.getResponseBody().write(bytes);
-        exchange.getResponseBody().close();
+        HttpResponses.sendJson(exchange, statusCode, JsonUtils.toJson(payload));
     }
 
     private String extractToken(HttpExchange exchange) {
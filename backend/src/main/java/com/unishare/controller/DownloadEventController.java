@@ -0,0 +1,345 @@
+package com.unishare.controller;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.unishare.config.ServerConfig;
+import com.unishare.service.DownloadManager;
+import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
+import com.unishare.util.RequestExecutors;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-Sent Events stream of download progress.
+ * URL pattern: /api/download-events/{sessionId}
+ * <p>
+ * The handler writes the response headers and the current session state, then
+ * returns; the stream stays open without holding a request thread. Updates
+ * published by {@link DownloadManager} are coalesced per session and handed out by a
+ * single dispatcher thread at most once per {@code UNISHARE_DOWNLOAD_EVENT_INTERVAL_MS}
+ * (default 500 ms). Completion, failure and cancellation are sent immediately and
+ * end the stream.
+ * <p>
+ * The dispatcher never writes to a socket itself. Each subscriber has at most one
+ * write in flight on the writer executor and catches up with the newest state when
+ * it finishes, so a slow client only delays its own stream. A write stuck for
+ * longer than {@value #WRITE_TIMEOUT_MILLIS} ms drops the subscriber.
+ */
+public class DownloadEventController implements HttpHandler, DownloadManager.Listener {
+
+    private static final String PATH_PREFIX = "/api/download-events/";
+    private static final String INTERVAL_ENV = "UNISHARE_DOWNLOAD_EVENT_INTERVAL_MS";
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    private static final int RETRY_MILLIS = 3_000;
+    private static final long WRITE_TIMEOUT_MILLIS = 10_000;
+    // Only bounds the platform-thread fallback; stalled writes are cut off by the timeout
+    private static final int WRITER_THREADS = 16;
+
+    private final DownloadManager downloadManager;
+    private final long intervalMillis;
+
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    // Latest update per session since the last dispatch; repeated updates overwrite each other
+    private final Map<String, DownloadManager.DownloadSession> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService writers;
+
+    public DownloadEventController(DownloadManager downloadManager) {
+        this(downloadManager, ServerConfig.readPositiveInt(INTERVAL_ENV, 500));
+    }
+
+    public DownloadEventController(DownloadManager downloadManager, long intervalMillis) {
+        this.downloadManager = downloadManager;
+        this.intervalMillis = intervalMillis;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DownloadEventDispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writers = RequestExecutors.newVirtualOrFixed("download-events", WRITER_THREADS);
+        dispatcher.scheduleWithFixedDelay(this::dispatch, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        downloadManager.addListener(this);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        switch (method) {
+            case "GET":
+                if (path.matches(PATH_PREFIX + "[^/]+")) {
+                    handleSubscribe(exchange, path.substring(PATH_PREFIX.length()));
+                } else {
+                    HttpResponses.sendError(exchange, 404, "Not Found");
+                }
+                break;
+            case "OPTIONS":
+                CORSFilter.handlePreflightRequest(exchange);
+                break;
+            default:
+                HttpResponses.sendError(exchange, 405, "Method Not Allowed");
+        }
+    }
+
+    private void handleSubscribe(HttpExchange exchange, String sessionId) throws IOException {
+        Optional<DownloadManager.DownloadSession> found = downloadManager.getDownloadStatus(sessionId);
+        if (found.isEmpty()) {
+            HttpResponses.sendError(exchange, 404, "Session not found");
+            return;
+        }
+        DownloadManager.DownloadSession session = found.get();
+
+        CORSFilter.addCORSHeaders(exchange);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "text/event-stream; charset=utf-8");
+        headers.set("Cache-Control", "no-cache");
+        headers.set("X-Accel-Buffering", "no");
+        exchange.sendResponseHeaders(200, 0);
+
+        // Written on the request thread, before the dispatcher knows the subscriber
+        Subscriber subscriber = new Subscriber(exchange);
+        if (!subscriber.write("retry: " + RETRY_MILLIS + "\n\n") || !subscriber.send(session)) {
+            return;
+        }
+
+        subscribers.compute(sessionId, (id, list) -> {
+            List<Subscriber> target = list != null ? list : new CopyOnWriteArrayList<>();
+            target.add(subscriber);
+            return target;
+        });
+        // Catch anything published between the snapshot and the registration
+        pending.put(sessionId, session);
+    }
+
+    @Override
+    public void sessionUpdated(DownloadManager.DownloadSession session) {
+        String sessionId = session.getSessionId();
+        if (!subscribers.containsKey(sessionId)) {
+            return;
+        }
+        pending.put(sessionId, session);
+        if (session.getStatus().isTerminal()) {
+            dispatcher.execute(this::dispatch);
+        }
+    }
+
+    /**
+     * Hands the latest state of every updated session to its subscribers, schedules
+     * heartbeats on idle streams and drops stalled or closed subscribers. Runs only on
+     * the dispatcher thread and never blocks on a client.
+     */
+    private void dispatch() {
+        try {
+            for (String sessionId : pending.keySet()) {
+                DownloadManager.DownloadSession session = pending.remove(sessionId);
+                List<Subscriber> list = subscribers.get(sessionId);
+                if (session == null || list == null) {
+                    continue;
+                }
+                for (Subscriber subscriber : list) {
+                    subscriber.publish(session);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, List<Subscriber>> entry : subscribers.entrySet()) {
+                for (Subscriber subscriber : entry.getValue()) {
+                    if (subscriber.closed) {
+                        unsubscribe(entry.getKey(), subscriber);
+                    } else if (subscriber.abortIfStalled(now)) {
+                        System.err.println("⚠️ Dropped stalled download event stream for " + entry.getKey());
+                        unsubscribe(entry.getKey(), subscriber);
+                    } else if (now - subscriber.lastWriteAt >= HEARTBEAT_MILLIS) {
+                        subscriber.heartbeat();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep the scheduled task alive
+            System.err.println("⚠️ Download event dispatch failed: " + e.getMessage());
+        }
+    }
+
+    private void unsubscribe(String sessionId, Subscriber subscriber) {
+        subscribers.computeIfPresent(sessionId, (id, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        for (List<Subscriber> list : subscribers.values()) {
+            list.forEach(Subscriber::abort);
+        }
+        subscribers.clear();
+        writers.shutdown();
+    }
+
+    /**
+     * One open event stream. Writes run on the writer executor, one at a time.
+     */
+    private final class Subscriber {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        // Guards the write queue below
+        private final Object lock = new Object();
+        private DownloadManager.DownloadSession latest;
+        private boolean heartbeatDue;
+        private boolean writing;
+        private Thread writer;
+        private long writeStartedAt;
+        // Touched only by the thread currently writing
+        private String lastData;
+        private volatile long lastWriteAt;
+        private volatile boolean closed;
+
+        Subscriber(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        /**
+         * Queues the session state, replacing any state not written yet.
+         */
+        void publish(DownloadManager.DownloadSession session) {
+            synchronized (lock) {
+                latest = session;
+            }
+            schedule();
+        }
+
+        void heartbeat() {
+            synchronized (lock) {
+                heartbeatDue = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            synchronized (lock) {
+                if (writing || closed) {
+                    return;
+                }
+                writing = true;
+            }
+            writers.execute(this::drain);
+        }
+
+        /**
+         * Writes queued states until none is left. A newer state published while a
+         * write runs is picked up by the next round.
+         */
+        private void drain() {
+            while (true) {
+                DownloadManager.DownloadSession session;
+                boolean heartbeat;
+                synchronized (lock) {
+                    session = latest;
+                    heartbeat = heartbeatDue;
+                    latest = null;
+                    heartbeatDue = false;
+                    if (closed || (session == null && !heartbeat)) {
+                        writing = false;
+                        return;
+                    }
+                    writer = Thread.currentThread();
+                    writeStartedAt = System.currentTimeMillis();
+                }
+                boolean open = session != null ? send(session) : write(": keep-alive\n\n");
+                synchronized (lock) {
+                    writer = null;
+                    // Clear an interrupt from a timeout that fired as the write finished
+                    Thread.interrupted();
+                    if (!open) {
+                        writing = false;
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Interrupts a write running longer than the timeout. The interrupt closes the
+         * blocking socket channel, so the writer thread is freed and the stream ends.
+         *
+         * @return true if the subscriber was aborted
+         */
+        boolean abortIfStalled(long now) {
+            synchronized (lock) {
+                if (writer == null || now - writeStartedAt < WRITE_TIMEOUT_MILLIS) {
+                    return false;
+                }
+                closed = true;
+                writer.interrupt();
+                return true;
+            }
+        }
+
+        void abort() {
+            synchronized (lock) {
+                if (writer != null) {
+                    closed = true;
+                    writer.interrupt();
+                    return;
+                }
+            }
+            close();
+        }
+
+        /**
+         * Sends the session state unless it is unchanged since the last event. A
+         * terminal state closes the stream.
+         *
+         * @return false if the stream is closed
+         */
+        boolean send(DownloadManager.DownloadSession session) {
+            DownloadManager.DownloadStatus status = session.getStatus();
+            String data = session.toJson();
+            if (!data.equals(lastData)) {
+                String event = status.isTerminal() ? status.toString().toLowerCase() : "progress";
+                if (!write("event: " + event + "\ndata: " + data + "\n\n")) {
+                    return false;
+                }
+                lastData = data;
+            }
+            if (status.isTerminal()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        boolean write(String chunk) {
+            if (closed) {
+                return false;
+            }
+            try {
+                out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                lastWriteAt = System.currentTimeMillis();
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        void close() {
+            closed = true;
+            exchange.close();
+        }
+    }
+}
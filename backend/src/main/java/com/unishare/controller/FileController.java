@@ -4,17 +4,23 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.unishare.model.FileInfo;
 import com.unishare.model.User;
+import com.unishare.config.ServerConfig;
 import com.unishare.service.AuthService;
+import com.unishare.service.BandwidthShaper;
 import com.unishare.service.FileService;
 import com.unishare.service.DownloadManager;
 import com.unishare.service.ModuleService;
 import com.unishare.service.MonitoringService;
 import com.unishare.service.NotificationService;
 import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
+import com.unishare.util.JsonUtils;
+import com.unishare.util.MultipartStream;
 import java.io.*;
 import java.net.HttpCookie;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,6 +31,8 @@ import java.util.UUID;
  */
 public class FileController implements HttpHandler {
 
+    private static final int MAX_FORM_FIELD_BYTES = 4096;
+
     private final FileService fileService;
     private final AuthService authService;
     private final DownloadManager downloadManager;
@@ -73,12 +81,21 @@ public class FileController implements HttpHandler {
                         handleDownloadFile(exchange);
                     } else if (path.equals("/api/download-stats")) {
                         handleDownloadStats(exchange);
+                    } else if (path.equals("/api/download-limits")) {
+                        handleDownloadLimits(exchange);
                     } else if (path.startsWith("/api/files/") && path.endsWith("/download")) {
                         handleFileDownloadLink(exchange);
                     } else {
                         sendErrorResponse(exchange, 404, "Not Found");
                     }
                     break;
+                case "PUT":
+                    if (path.equals("/api/download-limits")) {
+                        handleDownloadLimits(exchange);
+                    } else {
+                        sendErrorResponse(exchange, 404, "Not Found");
+                    }
+                    break;
                 case "DELETE":
                     if (path.startsWith("/api/files/")) {
                         handleDelete(exchange);
@@ -110,20 +127,17 @@ public class FileController implements HttpHandler {
                 return;
             }
 
-            // Read the request body once
-            InputStream inputStream = exchange.getRequestBody();
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-            byte[] data = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(data)) != -1) {
-                buffer.write(data, 0, bytesRead);
+            // Stream the multipart body: leading form fields first, then file parts
+            MultipartStream multipart;
+            try {
+                multipart = MultipartStream.open(
+                        exchange.getRequestHeaders().getFirst("Content-Type"),
+                        exchange.getRequestBody());
+            } catch (IOException e) {
+                sendErrorResponse(exchange, 400, "Expected multipart/form-data upload");
+                return;
             }
-
-            byte[] requestBody = buffer.toByteArray();
-
-            // Parse multipart form data
-            Map<String, String> formData = parseMultipartFormData(requestBody);
+            Map<String, String> formData = multipart.readLeadingFields(MAX_FORM_FIELD_BYTES);
 
             String module = formData.get("module");
             String uploaderLabel = formData.get("uploaderName");
@@ -136,14 +150,27 @@ public class FileController implements HttpHandler {
 
             System.out.println("📝 Parsed form data: module=" + module + ", uploaderName=" + uploaderLabel);
 
-            if (module == null) {
+            if (module == null || module.isBlank()) {
                 System.err.println("❌ Missing module or uploader name");
                 sendErrorResponse(exchange, 400, "Missing module or uploader name");
                 return;
             }
 
             // Get uploaded files
-            List<FileInfo> uploadedFiles = fileService.saveUploadedFiles(exchange, module, uploaderEmail, requestBody);
+            List<FileService.UploadOutcome> outcomes = fileService.saveUploadedFiles(multipart, module, uploaderEmail);
+            List<FileInfo> uploadedFiles = new ArrayList<>();
+            StringBuilder failuresJson = new StringBuilder();
+            for (FileService.UploadOutcome outcome : outcomes) {
+                if (outcome.succeeded()) {
+                    uploadedFiles.add(outcome.file());
+                } else {
+                    if (failuresJson.length() > 0) {
+                        failuresJson.append(",");
+                    }
+                    failuresJson.append("{\"filename\":\"").append(escapeJson(outcome.filename()))
+                            .append("\",\"error\":\"").append(escapeJson(outcome.error())).append("\"}");
+                }
+            }
 
             // Notify subscribers about the file upload
             if (!uploadedFiles.isEmpty() && notificationService != null) {
@@ -178,17 +205,16 @@ public class FileController implements HttpHandler {
                     .map(FileInfo::toJson)
                     .reduce((a, b) -> a + "," + b)
                     .orElse("");
+            boolean allSucceeded = uploadedFiles.size() == outcomes.size();
             String response = String.format(
-                    "{\"success\":true,\"message\":\"Files uploaded successfully\",\"module\":\"%s\",\"files\":[%s]}",
-                    module, filesJson);
+                    "{\"success\":%b,\"message\":\"%s\",\"module\":\"%s\",\"files\":[%s],\"failures\":[%s]}",
+                    allSucceeded,
+                    allSucceeded ? "Files uploaded successfully" : "Some files could not be uploaded",
+                    escapeJson(module), filesJson, failuresJson);
 
             System.out.println("📤 Sending response: " + response);
 
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
 
             System.out.println("✅ Upload successful: " + uploadedFiles.size() + " files to module " + module
                     + " by " + user.get().getEmail());
@@ -258,12 +284,7 @@ public class FileController implements HttpHandler {
                     "\"fileSize\":" + fileInfo.getFileSize() +
                     "}";
 
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
         } catch (Exception e) {
             System.err.println("❌ Direct download link failed: " + e.getMessage());
             sendErrorResponse(exchange, 500, "Failed to prepare download link");
@@ -310,11 +331,7 @@ public class FileController implements HttpHandler {
             }
 
             String response = "{\"success\":true}";
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
         } catch (Exception e) {
             System.err.println("❌ Delete failed: " + e.getMessage());
             sendErrorResponse(exchange, 500, "Delete failed");
@@ -336,80 +353,6 @@ public class FileController implements HttpHandler {
         return null;
     }
 
-    private Map<String, String> parseMultipartFormData(byte[] requestBody) throws IOException {
-        Map<String, String> formData = new HashMap<>();
-
-        String body = new String(requestBody, StandardCharsets.ISO_8859_1);
-
-        System.out.println("📝 Raw request body length: " + requestBody.length + " bytes");
-        System.out.println("📝 First 200 chars of body: " + body.substring(0, Math.min(200, body.length())));
-
-        // Find the boundary dynamically
-        String boundary = null;
-        String[] lines = body.split("\r\n");
-        for (String line : lines) {
-            if (line.startsWith("------WebKitFormBoundary")) {
-                boundary = line;
-                break;
-            }
-        }
-
-        if (boundary == null) {
-            System.err.println("❌ No boundary found in multipart data");
-            formData.put("module", "IN3111");
-            formData.put("uploaderName", "Anonymous");
-            return formData;
-        }
-
-        System.out.println("📝 Found boundary: " + boundary);
-
-        // Split by boundary
-        String[] parts = body.split(boundary);
-
-        for (String part : parts) {
-            System.out.println("📝 Processing part: " + part.substring(0, Math.min(100, part.length())) + "...");
-
-            if (part.contains("name=\"module\"")) {
-                // Extract module value
-                int startIndex = part.indexOf("\r\n\r\n") + 4;
-                int endIndex = part.indexOf("\r\n", startIndex);
-                if (endIndex == -1)
-                    endIndex = part.length();
-                if (startIndex < endIndex) {
-                    String module = part.substring(startIndex, endIndex).trim();
-                    formData.put("module", module);
-                    System.out.println("📝 Found module: " + module);
-                }
-            }
-
-            if (part.contains("name=\"uploaderName\"")) {
-                // Extract uploaderName value
-                int startIndex = part.indexOf("\r\n\r\n") + 4;
-                int endIndex = part.indexOf("\r\n", startIndex);
-                if (endIndex == -1)
-                    endIndex = part.length();
-                if (startIndex < endIndex) {
-                    String uploaderName = part.substring(startIndex, endIndex).trim();
-                    formData.put("uploaderName", uploaderName);
-                    System.out.println("📝 Found uploaderName: " + uploaderName);
-                }
-            }
-        }
-
-        // Fallback to defaults if not found
-        if (!formData.containsKey("module")) {
-            formData.put("module", "IN3111");
-            System.out.println("⚠️ Module not found, using default: IN3111");
-        }
-        if (!formData.containsKey("uploaderName")) {
-            formData.put("uploaderName", "Anonymous");
-            System.out.println("⚠️ UploaderName not found, using default: Anonymous");
-        }
-
-        System.out.println("📝 Final parsed form data: " + formData);
-        return formData;
-    }
-
     /**
      * Handle file download requests through the download manager
      * URL pattern: /api/download/{fileId}
@@ -450,7 +393,14 @@ public class FileController implements HttpHandler {
             }
 
             // Initiate download through the download manager
-            String sessionId = downloadManager.initiateDownload(fileId, user.get().getEmail());
+            String sessionId;
+            try {
+                sessionId = downloadManager.initiateDownload(fileId, user.get().getEmail());
+            } catch (DownloadManager.CapacityExceededException e) {
+                exchange.getResponseHeaders().set("Retry-After", "30");
+                sendErrorResponse(exchange, 503, e.getMessage());
+                return;
+            }
             
             // Always return session ID for progress tracking (managed downloads only)
             String response = String.format(
@@ -458,11 +408,7 @@ public class FileController implements HttpHandler {
                 sessionId, fileInfo.get().getFilename()
             );
             
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
             
         } catch (Exception e) {
             System.err.println("❌ Download request failed: " + e.getMessage());
@@ -487,29 +433,10 @@ public class FileController implements HttpHandler {
             
             Optional<DownloadManager.DownloadSession> session = downloadManager.getDownloadStatus(sessionId);
             
-            String response;
-            if (session.isPresent()) {
-                DownloadManager.DownloadSession s = session.get();
-                String status = s.getStatus().toString().toLowerCase();
-                response = String.format(
-                    "{\"sessionId\":\"%s\",\"status\":\"%s\",\"progress\":%d,\"bytesDownloaded\":%d,\"totalBytes\":%d,\"elapsedTime\":%d,\"error\":\"%s\"}",
-                    s.getSessionId(),
-                    status,
-                    s.getProgress(),
-                    s.getBytesDownloaded(),
-                    s.getTotalBytes(),
-                    s.getElapsedTime(),
-                    s.getErrorMessage() != null ? s.getErrorMessage() : ""
-                );
-            } else {
-                response = "{\"error\":\"Session not found\"}";
-            }
+            String response = session.map(DownloadManager.DownloadSession::toJson)
+                    .orElse("{\"error\":\"Session not found\"}");
             
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
             
         } catch (Exception e) {
             System.err.println("❌ Download status check failed: " + e.getMessage());
@@ -531,11 +458,7 @@ public class FileController implements HttpHandler {
             DownloadManager.DownloadStats stats = downloadManager.getStatistics();
             String response = stats.toJson();
             
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
             
         } catch (Exception e) {
             System.err.println("❌ Download stats failed: " + e.getMessage());
@@ -543,6 +466,74 @@ public class FileController implements HttpHandler {
         }
     }
 
+    /**
+     * Show or change download bandwidth limits. PUT takes a JSON object with any of
+     * globalKbps, userKbps and sessionKbps (0 for unlimited) and is restricted to
+     * the users in UNISHARE_ADMIN_EMAILS.
+     * URL pattern: /api/download-limits
+     */
+    private void handleDownloadLimits(HttpExchange exchange) throws IOException {
+        BandwidthShaper shaper = downloadManager != null ? downloadManager.getShaper() : null;
+        if (shaper == null) {
+            sendErrorResponse(exchange, 503, "Bandwidth shaping unavailable");
+            return;
+        }
+
+        if ("PUT".equals(exchange.getRequestMethod())) {
+            Optional<User> user = authService.findBySessionToken(extractToken(exchange));
+            if (user.isEmpty()) {
+                sendErrorResponse(exchange, 401, "Authentication required");
+                return;
+            }
+            if (!ServerConfig.isAdmin(user.get().getEmail())) {
+                sendErrorResponse(exchange, 403, "Not allowed to change download limits");
+                return;
+            }
+
+            Map<String, String> body = readJsonBody(exchange);
+            BandwidthShaper.Stats current = shaper.getStats();
+            try {
+                shaper.setLimits(
+                        readLimit(body, "globalKbps", current.globalLimit()),
+                        readLimit(body, "userKbps", current.userLimit()),
+                        readLimit(body, "sessionKbps", current.sessionLimit()));
+            } catch (IllegalArgumentException e) {
+                sendErrorResponse(exchange, 400, e.getMessage());
+                return;
+            }
+        }
+
+        HttpResponses.sendJson(exchange, 200, shaper.getStats().toJson());
+    }
+
+    private static long readLimit(Map<String, String> body, String field, long currentBytesPerSecond) {
+        String raw = body.get(field);
+        if (raw == null || raw.isBlank()) {
+            return currentBytesPerSecond;
+        }
+        try {
+            long kbps = Long.parseLong(raw.trim());
+            if (kbps < 0) {
+                throw new IllegalArgumentException(field + " must not be negative");
+            }
+            return kbps * 1024;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " must be a whole number of KB/s");
+        }
+    }
+
+    private Map<String, String> readJsonBody(HttpExchange exchange) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            StringBuilder builder = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+            return JsonUtils.parseObject(builder.toString());
+        }
+    }
+
     /**
      * Handle downloading completed file content
      * URL pattern: /api/download-file/{sessionId}
@@ -571,43 +562,69 @@ public class FileController implements HttpHandler {
             }
             
             DownloadManager.DownloadSession session = sessionOpt.get();
+            // Serving (or resuming) counts as activity for the session reaper
+            session.touch();
             
             if (session.getStatus() != DownloadManager.DownloadStatus.COMPLETED) {
                 sendErrorResponse(exchange, 400, "Download not completed yet");
                 return;
             }
             
-            byte[] fileContent = session.getFileContent();
-            if (fileContent == null) {
-                sendErrorResponse(exchange, 500, "File content not available");
-                return;
-            }
-            
-            FileInfo fileInfo = session.getFileInfo();
-            if (fileInfo == null) {
-                sendErrorResponse(exchange, 500, "File information not available");
-                return;
-            }
-            
-            // Set appropriate headers for file download
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", getContentType(fileInfo.getFilename()));
-            exchange.getResponseHeaders().set("Content-Disposition", 
-                "attachment; filename=\"" + fileInfo.getFilename() + "\"");
-            exchange.getResponseHeaders().set("Content-Length", String.valueOf(fileContent.length));
-            
-            // Stream the file content
-            exchange.sendResponseHeaders(200, fileContent.length);
-            try (OutputStream outputStream = exchange.getResponseBody()) {
-                outputStream.write(fileContent);
-            }
-            
-            if (downloadManager != null) {
-                downloadManager.clearSession(sessionId);
+            // Held until the response is written: a concurrent full download may clear
+            // the session, which would otherwise delete the content under this one
+            try (DownloadManager.ContentHandle content = session.openContent()) {
+                if (content == null) {
+                    sendErrorResponse(exchange, 500, "File content not available");
+                    return;
+                }
+                Path contentFile = content.getFile();
+                long contentLength = content.getLength();
+                
+                FileInfo fileInfo = session.getFileInfo();
+                if (fileInfo == null) {
+                    sendErrorResponse(exchange, 500, "File information not available");
+                    return;
+                }
+                
+                // The storage key names one immutable upload, so it identifies the bytes.
+                // A client already holding them is done with the session.
+                String etag = fileInfo.getStorageKey() != null
+                        ? "\"" + UUID.nameUUIDFromBytes(fileInfo.getStorageKey().getBytes(StandardCharsets.UTF_8)) + "\""
+                        : "\"" + fileInfo.getId() + "-" + contentLength + "\"";
+                if (HttpResponses.notModified(exchange, etag)) {
+                    downloadManager.clearSession(sessionId);
+                    return;
+                }
+                
+                // Set appropriate headers for file download
+                CORSFilter.addCORSHeaders(exchange);
+                exchange.getResponseHeaders().set("Content-Disposition", 
+                    "attachment; filename=\"" + fileInfo.getFilename() + "\"");
+                
+                // Shape the response to the download bandwidth limits
+                BandwidthShaper shaper = downloadManager.getShaper();
+                if (shaper != null) {
+                    exchange.setStreams(null, shaper.throttle(exchange.getResponseBody(), user.get().getEmail(), sessionId));
+                }
+                
+                // Stream the spooled file content, or the requested ranges of it
+                boolean complete;
+                try {
+                    complete = HttpResponses.sendFileRanges(exchange, contentFile, contentLength,
+                            getContentType(fileInfo.getFilename()), etag, fileInfo.getUploadInstant());
+                } finally {
+                    if (shaper != null) {
+                        shaper.forget(sessionId);
+                    }
+                }
+                
+                // Partial responses keep the session so the client can resume
+                if (complete) {
+                    downloadManager.clearSession(sessionId);
+                    System.out.println("✅ File served: " + fileInfo.getFilename() + " (" + contentLength + " bytes)");
+                }
             }
             
-            System.out.println("✅ File served: " + fileInfo.getFilename() + " (" + fileContent.length + " bytes)");
-            
         } catch (Exception e) {
             System.err.println("❌ Download file serving failed: " + e.getMessage());
             e.printStackTrace();
@@ -673,11 +690,7 @@ public class FileController implements HttpHandler {
                 sessionId, cancelled
             );
             
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.getBytes().length);
-            exchange.getResponseBody().write(response.getBytes());
-            exchange.getResponseBody().close();
+            HttpResponses.sendJson(exchange, 200, response);
             
         } catch (Exception e) {
             System.err.println("❌ Download cancellation failed: " + e.getMessage());
@@ -688,11 +701,7 @@ public class FileController implements HttpHandler {
     private void sendErrorResponse(HttpExchange exchange, int code, String message) throws IOException {
         String response = "{\"error\":\"" + message + "\"}";
         System.err.println("❌ Sending error response: " + response);
-        CORSFilter.addCORSHeaders(exchange);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(code, response.getBytes().length);
-        exchange.getResponseBody().write(response.getBytes());
-        exchange.getResponseBody().close();
+        HttpResponses.sendJson(exchange, code, response);
     }
 
     private String escapeJson(String value) {
@@ -4,27 +4,50 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.unishare.model.FileInfo;
 import com.unishare.model.ModuleInfo;
+import com.unishare.model.User;
+import com.unishare.service.AuthService;
+import com.unishare.service.FileMetadataService;
 import com.unishare.service.FileService;
+import com.unishare.service.ModuleArchiveService;
 import com.unishare.service.ModuleService;
 import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
 import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * Controller for handling module-related requests
  */
 public class ModuleController implements HttpHandler {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
     private final ModuleService moduleService;
     private final FileService fileService;
+    private final ModuleArchiveService archiveService;
+    private final AuthService authService;
 
     public ModuleController(ModuleService moduleService) {
         this(moduleService, null);
     }
 
     public ModuleController(ModuleService moduleService, FileService fileService) {
+        this(moduleService, fileService, null, null);
+    }
+
+    public ModuleController(ModuleService moduleService, FileService fileService,
+            ModuleArchiveService archiveService, AuthService authService) {
         this.moduleService = moduleService;
         this.fileService = fileService; // may be null if not wired yet
+        this.archiveService = archiveService; // archives are unavailable without it
+        this.authService = authService;
     }
 
     @Override
@@ -37,6 +60,8 @@ public class ModuleController implements HttpHandler {
                 case "GET":
                     if (path.equals("/api/modules")) {
                         handleModules(exchange);
+                    } else if (path.matches("/api/modules/[^/]+/archive")) {
+                        handleModuleArchive(exchange);
                     } else if (path.startsWith("/api/modules/")) {
                         handleModuleFiles(exchange);
                     }
@@ -55,6 +80,10 @@ public class ModuleController implements HttpHandler {
 
     public void handleModules(HttpExchange exchange) throws IOException {
         try {
+            String etag = HttpResponses.versionTag("modules", moduleService.getCatalogueVersion());
+            if (HttpResponses.notModified(exchange, etag)) {
+                return;
+            }
             List<ModuleInfo> modules = moduleService.getModules();
 
             StringBuilder json = new StringBuilder("{\"modules\":[");
@@ -69,69 +98,186 @@ public class ModuleController implements HttpHandler {
             }
             json.append("]}");
 
-            byte[] bytes = json.toString().getBytes();
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, bytes.length);
-            try {
-                exchange.getResponseBody().write(bytes);
-            } finally {
-                exchange.getResponseBody().close();
-            }
+            HttpResponses.sendJson(exchange, 200, json.toString());
         } catch (Exception e) {
             System.err.println("❌ Failed to get modules: " + e.getMessage());
             sendErrorResponse(exchange, 500, "Failed to get modules");
         }
     }
 
+    /**
+     * Lists a module's files newest first, one page at a time. Accepts
+     * {@code limit} (capped at {@value #MAX_PAGE_SIZE}) and the {@code cursor}
+     * returned as {@code nextCursor} by the previous page.
+     */
     public void handleModuleFiles(HttpExchange exchange) throws IOException {
         String path = exchange.getRequestURI().getPath();
         String moduleCode = path.substring("/api/modules/".length());
+        Map<String, String> query;
+        try {
+            query = parseQuery(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            // URLDecoder rejects malformed % escapes
+            sendErrorResponse(exchange, 400, "Malformed query string");
+            return;
+        }
+
+        int limit = DEFAULT_PAGE_SIZE;
+        if (query.containsKey("limit")) {
+            try {
+                limit = Integer.parseInt(query.get("limit"));
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+            if (limit <= 0) {
+                sendErrorResponse(exchange, 400, "limit must be a positive integer");
+                return;
+            }
+            limit = Math.min(limit, MAX_PAGE_SIZE);
+        }
+        String cursor = query.get("cursor");
+        if (cursor != null && cursor.isEmpty()) {
+            cursor = null;
+        }
 
         try {
-            if (!moduleService.isValidModule(moduleCode)) {
+            long version = moduleService.getModuleVersion(moduleCode);
+            ModuleInfo moduleInfo = moduleService.findByCode(moduleCode);
+            if (moduleInfo == null) {
                 sendErrorResponse(exchange, 404, "Module not found");
                 return;
             }
+            // Each page is its own URL, so the module's version covers every page
+            if (HttpResponses.notModified(exchange, HttpResponses.versionTag("module", version))) {
+                return;
+            }
 
-            List<FileInfo> files = fileService != null ? fileService.getFilesForModule(moduleCode) : List.of();
-            ModuleInfo moduleInfo = moduleService.findByCode(moduleCode);
+            FileMetadataService.FilePage page;
+            try {
+                page = fileService != null
+                        ? fileService.getFilesForModule(moduleCode, cursor, limit)
+                        : new FileMetadataService.FilePage(List.of(), null);
+            } catch (IllegalArgumentException e) {
+                sendErrorResponse(exchange, 400, "Invalid cursor");
+                return;
+            }
+            List<FileInfo> files = page.files();
 
             StringBuilder json = new StringBuilder();
             json.append("{\"module\":{");
             json.append("\"code\":\"").append(moduleInfo.getCode()).append("\",");
             json.append("\"name\":\"").append(escape(moduleInfo.getName())).append("\",");
-            json.append("\"description\":\"").append(escape(moduleInfo.getDescription())).append("\"");
+            json.append("\"description\":\"").append(escape(moduleInfo.getDescription())).append("\",");
+            json.append("\"fileCount\":").append(moduleInfo.getFileCount());
             json.append("},\"files\":[");
             for (int i = 0; i < files.size(); i++) {
                 if (i > 0)
                     json.append(",");
                 json.append(files.get(i).toJson());
             }
-            json.append("]}");
-
-            byte[] bytes = json.toString().getBytes();
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, bytes.length);
-            try {
-                exchange.getResponseBody().write(bytes);
-            } finally {
-                exchange.getResponseBody().close();
+            json.append("],\"limit\":").append(limit);
+            json.append(",\"nextCursor\":");
+            if (page.nextCursor() != null) {
+                json.append("\"").append(page.nextCursor()).append("\"");
+            } else {
+                json.append("null");
             }
+            json.append("}");
+
+            HttpResponses.sendJson(exchange, 200, json.toString());
         } catch (Exception e) {
             System.err.println("❌ Failed to get module files: " + e.getMessage());
             sendErrorResponse(exchange, 500, "Failed to get module files");
         }
     }
 
+    /**
+     * Streams every file of a module as a ZIP download.
+     * URL pattern: /api/modules/{code}/archive
+     */
+    public void handleModuleArchive(HttpExchange exchange) throws IOException {
+        if (archiveService == null || authService == null) {
+            sendErrorResponse(exchange, 503, "Module archives unavailable");
+            return;
+        }
+        Optional<User> user = authService.findBySessionToken(extractToken(exchange));
+        if (user.isEmpty()) {
+            sendErrorResponse(exchange, 401, "Authentication required");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        String moduleCode = path.substring("/api/modules/".length(), path.length() - "/archive".length());
+        List<FileInfo> files;
+        try {
+            if (moduleService.findByCode(moduleCode) == null) {
+                sendErrorResponse(exchange, 404, "Module not found");
+                return;
+            }
+            files = archiveService.listFiles(moduleCode);
+        } catch (Exception e) {
+            System.err.println("❌ Failed to list files for archive of " + moduleCode + ": " + e.getMessage());
+            sendErrorResponse(exchange, 500, "Failed to get module files");
+            return;
+        }
+        if (files.isEmpty()) {
+            sendErrorResponse(exchange, 404, "Module has no files");
+            return;
+        }
+        if (!archiveService.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", "30");
+            sendErrorResponse(exchange, 503, "Too many archives in progress, try again shortly");
+            return;
+        }
+
+        try {
+            CORSFilter.addCORSHeaders(exchange);
+            exchange.getResponseHeaders().set("Content-Type", "application/zip");
+            exchange.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"" + moduleCode.replaceAll("[^A-Za-z0-9_-]", "_") + ".zip\"");
+            // Length unknown until the last entry is written: send chunked
+            exchange.sendResponseHeaders(200, 0);
+            archiveService.writeArchive(files, exchange.getResponseBody(), user.get().getEmail());
+        } catch (IOException e) {
+            // Usually the client went away; the status line is already out
+            System.err.println("⚠️ Archive of " + moduleCode + " aborted: " + e.getMessage());
+            exchange.close();
+        } finally {
+            archiveService.release();
+        }
+    }
+
+    private String extractToken(HttpExchange exchange) {
+        List<String> cookies = exchange.getRequestHeaders().get("Cookie");
+        if (cookies == null) {
+            return null;
+        }
+        for (String header : cookies) {
+            for (HttpCookie cookie : HttpCookie.parse(header)) {
+                if (authService.getSessionCookieName().equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals >= 0 ? pair.substring(0, equals) : pair;
+            String value = equals >= 0 ? pair.substring(equals + 1) : "";
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
     private void sendErrorResponse(HttpExchange exchange, int code, String message) throws IOException {
-        String response = "{\"error\":\"" + message + "\"}";
-        CORSFilter.addCORSHeaders(exchange);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(code, response.getBytes().length);
-        exchange.getResponseBody().write(response.getBytes());
-        exchange.close();
+        HttpResponses.sendError(exchange, code, message);
     }
 
     private String escape(String s) {
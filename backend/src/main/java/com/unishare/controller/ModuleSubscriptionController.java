@@ -7,8 +7,8 @@ import com.unishare.service.AuthService;
 import com.unishare.service.ModuleService;
 import com.unishare.service.ModuleSubscriptionService;
 import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.HttpCookie;
 import java.util.List;
 
@@ -176,13 +176,7 @@ public class ModuleSubscriptionController implements HttpHandler {
     }
 
     private void sendJsonResponse(HttpExchange exchange, int statusCode, String json) throws IOException {
-        CORSFilter.addCORSHeaders(exchange);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        byte[] bytes = json.getBytes();
-        exchange.sendResponseHeaders(statusCode, bytes.length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(bytes);
-        }
+        HttpResponses.sendJson(exchange, statusCode, json);
     }
 
     private void sendErrorResponse(HttpExchange exchange, int code, String message) throws IOException {
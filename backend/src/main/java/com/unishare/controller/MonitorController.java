@@ -4,8 +4,8 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.unishare.service.MonitoringService;
 import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 
 /**
@@ -37,16 +37,7 @@ public class MonitorController implements HttpHandler {
     private void handleSnapshot(HttpExchange exchange) throws IOException {
         try {
             String payload = monitoringService.getDashboardSnapshotJson();
-            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
-
-            CORSFilter.addCORSHeaders(exchange);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, bytes.length);
-            try {
-                exchange.getResponseBody().write(bytes);
-            } finally {
-                exchange.getResponseBody().close();
-            }
+            HttpResponses.sendJson(exchange, 200, payload);
         } catch (SQLException e) {
             System.err.println("❌ Failed to build monitoring snapshot: " + e.getMessage());
             sendErrorResponse(exchange, 500, "Failed to load monitoring data");
@@ -54,16 +45,7 @@ public class MonitorController implements HttpHandler {
     }
 
     private void sendErrorResponse(HttpExchange exchange, int status, String message) throws IOException {
-        String response = "{\"error\":\"" + message + "\"}";
-        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-        CORSFilter.addCORSHeaders(exchange);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(status, bytes.length);
-        try {
-            exchange.getResponseBody().write(bytes);
-        } finally {
-            exchange.getResponseBody().close();
-        }
+        HttpResponses.sendError(exchange, status, message);
     }
 }
 
@@ -6,9 +6,9 @@ import com.unishare.model.User;
 import com.unishare.service.AuthService;
 import com.unishare.service.NotificationService;
 import com.unishare.util.CORSFilter;
+import com.unishare.util.HttpResponses;
 import java.io.IOException;
 import java.net.HttpCookie;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -93,6 +93,9 @@ public class NotificationController implements HttpHandler {
      * GET /api/notifications - Get all notifications (read and unread)
      */
     private void handleGetNotifications(HttpExchange exchange, UUID userId) throws IOException {
+        if (HttpResponses.notModified(exchange, versionTag("notifications", userId))) {
+            return;
+        }
         List<NotificationService.Notification> notifications = notificationService.getAllNotifications(userId);
 
         String notificationsJson = notifications.stream()
@@ -108,6 +111,9 @@ public class NotificationController implements HttpHandler {
      * GET /api/notifications/unread - Get only unread notifications
      */
     private void handleGetUnreadNotifications(HttpExchange exchange, UUID userId) throws IOException {
+        if (HttpResponses.notModified(exchange, versionTag("unread", userId))) {
+            return;
+        }
         List<NotificationService.Notification> notifications = notificationService.getUnreadNotifications(userId);
 
         String notificationsJson = notifications.stream()
@@ -123,6 +129,9 @@ public class NotificationController implements HttpHandler {
      * GET /api/notifications/count - Get count of unread notifications
      */
     private void handleGetUnreadCount(HttpExchange exchange, UUID userId) throws IOException {
+        if (HttpResponses.notModified(exchange, versionTag("count", userId))) {
+            return;
+        }
         int count = notificationService.getUnreadCount(userId);
         String response = String.format("{\"count\":%d}", count);
         sendJsonResponse(exchange, 200, response);
@@ -165,6 +174,14 @@ public class NotificationController implements HttpHandler {
         sendJsonResponse(exchange, 200, "{\"success\":true,\"message\":\"All notifications cleared\"}");
     }
 
+    /**
+     * Entity tag for one user's view. Carries the user id, as a browser shared by
+     * two accounts keeps one cache for both.
+     */
+    private String versionTag(String view, UUID userId) {
+        return HttpResponses.versionTag(view + "-" + userId, notificationService.getVersion(userId));
+    }
+
     private String extractToken(HttpExchange exchange) {
         List<String> cookies = exchange.getRequestHeaders().get("Cookie");
         if (cookies == null) {
@@ -181,12 +198,7 @@ public class NotificationController implements HttpHandler {
     }
 
     private void sendJsonResponse(HttpExchange exchange, int statusCode, String json) throws IOException {
-        CORSFilter.addCORSHeaders(exchange);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        byte[] response = json.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(statusCode, response.length);
-        exchange.getResponseBody().write(response);
-        exchange.getResponseBody().close();
+        HttpResponses.sendJson(exchange, statusCode, json);
     }
 
     private void sendErrorResponse(HttpExchange exchange, int statusCode, String message) throws IOException {
@@ -2,6 +2,7 @@ package com.unishare.controller;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import com.unishare.util.HttpResponses;
 
 import java.io.*;
 import java.net.URLDecoder;
@@ -57,13 +58,11 @@ public class SimpleChatController implements HttpHandler {
             System.out.println("[CHAT] " + module + " - " + user + ": " + message);
             
             String response = "{\"status\":\"success\"}";
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.length());
-            exchange.getResponseBody().write(response.getBytes());
+            HttpResponses.send(exchange, 200, "application/json", response.getBytes(StandardCharsets.UTF_8));
         } else {
             exchange.sendResponseHeaders(400, -1);
+            exchange.getResponseBody().close();
         }
-        exchange.getResponseBody().close();
     }
     
     private void handleGetMessages(HttpExchange exchange) throws IOException {
@@ -99,10 +98,7 @@ public class SimpleChatController implements HttpHandler {
         }
         response.append("]}");
         
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(200, response.length());
-        exchange.getResponseBody().write(response.toString().getBytes());
-        exchange.getResponseBody().close();
+        HttpResponses.send(exchange, 200, "application/json", response.toString().getBytes(StandardCharsets.UTF_8));
     }
     
     private Map<String, String> parseFormData(String formData) {
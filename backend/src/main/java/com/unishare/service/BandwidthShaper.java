@@ -0,0 +1,195 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import com.unishare.util.TokenBucket;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hierarchical token-bucket bandwidth limiter for download traffic.
+ * <p>
+ * Every transfer is charged against three buckets: one global, one per user and
+ * one per session, and waits for whichever is furthest behind. Limits start from
+ * {@code UNISHARE_BANDWIDTH_GLOBAL_KBPS}, {@code UNISHARE_BANDWIDTH_USER_KBPS} and
+ * {@code UNISHARE_BANDWIDTH_SESSION_KBPS} (KB/s, unset means unlimited) and can be
+ * changed at runtime with {@link #setLimits(long, long, long)}.
+ * <p>
+ * A Cloudinary fetch shared by several download sessions is shaped once, under the
+ * user who started it. Every session is then shaped under its own user when its
+ * copy is served, so each user's limit covers everything sent to that user.
+ */
+public class BandwidthShaper {
+
+    private static final String GLOBAL_ENV = "UNISHARE_BANDWIDTH_GLOBAL_KBPS";
+    private static final String USER_ENV = "UNISHARE_BANDWIDTH_USER_KBPS";
+    private static final String SESSION_ENV = "UNISHARE_BANDWIDTH_SESSION_KBPS";
+    private static final long IDLE_BUCKET_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> users = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> sessions = new ConcurrentHashMap<>();
+    private volatile long userLimit;
+    private volatile long sessionLimit;
+
+    private final AtomicLong nextPruneAt = new AtomicLong(System.nanoTime() + IDLE_BUCKET_NANOS);
+    private final AtomicLong shapedBytes = new AtomicLong();
+    private final AtomicLong delayedWrites = new AtomicLong();
+    private final AtomicLong delayNanos = new AtomicLong();
+
+    public BandwidthShaper() {
+        this(ServerConfig.readPositiveInt(GLOBAL_ENV, 0) * 1024L,
+                ServerConfig.readPositiveInt(USER_ENV, 0) * 1024L,
+                ServerConfig.readPositiveInt(SESSION_ENV, 0) * 1024L);
+    }
+
+    /**
+     * @param globalLimit  bytes per second across all downloads, 0 for unlimited
+     * @param userLimit    bytes per second per user, 0 for unlimited
+     * @param sessionLimit bytes per second per session, 0 for unlimited
+     */
+    public BandwidthShaper(long globalLimit, long userLimit, long sessionLimit) {
+        this.global = new TokenBucket(globalLimit);
+        this.userLimit = userLimit;
+        this.sessionLimit = sessionLimit;
+    }
+
+    /**
+     * Charges {@code bytes} to the global, user and session buckets and sleeps
+     * until all three allow them.
+     */
+    public void acquire(String user, String session, long bytes) throws InterruptedException {
+        long wait = reserve(user, session, bytes);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Charges {@code bytes} like {@link #acquire(String, String, long)} without
+     * blocking, for callers that pace themselves.
+     *
+     * @return nanoseconds to wait before sending more, 0 if no wait is needed
+     */
+    public long reserve(String user, String session, long bytes) {
+        pruneIdleBucketsIfDue();
+        shapedBytes.addAndGet(bytes);
+        long wait = global.reserve(bytes);
+        wait = Math.max(wait, bucket(users, user, userLimit).reserve(bytes));
+        wait = Math.max(wait, bucket(sessions, session, sessionLimit).reserve(bytes));
+        if (wait > 0) {
+            delayedWrites.incrementAndGet();
+            delayNanos.addAndGet(wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is shaped.
+     */
+    public OutputStream throttle(OutputStream out, String user, String session) {
+        return new ShapedOutputStream(out, user, session);
+    }
+
+    /**
+     * Drops the bucket of a finished session.
+     */
+    public void forget(String session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * Replaces all three limits, in bytes per second (0 for unlimited). Existing
+     * user and session buckets pick up the new rates immediately.
+     */
+    public void setLimits(long globalLimit, long userLimit, long sessionLimit) {
+        global.setRate(globalLimit);
+        this.userLimit = userLimit;
+        this.sessionLimit = sessionLimit;
+        users.values().forEach(bucket -> bucket.setRate(userLimit));
+        sessions.values().forEach(bucket -> bucket.setRate(sessionLimit));
+        System.out.println("🔧 Download bandwidth limits: global=" + globalLimit + " B/s, user="
+                + userLimit + " B/s, session=" + sessionLimit + " B/s");
+    }
+
+    public Stats getStats() {
+        return new Stats(global.getRate(), userLimit, sessionLimit, users.size(), sessions.size(),
+                shapedBytes.get(), delayedWrites.get(), TimeUnit.NANOSECONDS.toMillis(delayNanos.get()));
+    }
+
+    private TokenBucket bucket(Map<String, TokenBucket> buckets, String key, long limit) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(limit));
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops user and session buckets unused for a minute, at most once a minute and
+     * by whichever caller gets there first. A returning user starts with a fresh
+     * bucket, which is what an idle one would have refilled to anyway.
+     */
+    private void pruneIdleBucketsIfDue() {
+        long now = System.nanoTime();
+        long due = nextPruneAt.get();
+        if (now - due < 0 || !nextPruneAt.compareAndSet(due, now + IDLE_BUCKET_NANOS)) {
+            return;
+        }
+        users.values().removeIf(bucket -> now - bucket.getLastUsed() > IDLE_BUCKET_NANOS);
+        // Sessions normally forget their bucket; this catches any that never did
+        sessions.values().removeIf(bucket -> now - bucket.getLastUsed() > IDLE_BUCKET_NANOS);
+    }
+
+    private final class ShapedOutputStream extends FilterOutputStream {
+        private final String user;
+        private final String session;
+
+        ShapedOutputStream(OutputStream out, String user, String session) {
+            super(out);
+            this.user = user;
+            this.session = session;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            shape(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            shape(len);
+            out.write(b, off, len);
+        }
+
+        private void shape(int len) throws IOException {
+            try {
+                acquire(user, session, len);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while shaping download");
+            }
+        }
+    }
+
+    /**
+     * Current limits (bytes per second, 0 = unlimited) and shaping counters.
+     */
+    public record Stats(long globalLimit, long userLimit, long sessionLimit, int users, int sessions,
+                        long shapedBytes, long delayedWrites, long delayMillis) {
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"globalLimit\":%d,\"userLimit\":%d,\"sessionLimit\":%d,\"users\":%d,\"sessions\":%d," +
+                            "\"shapedBytes\":%d,\"delayedWrites\":%d,\"delayMillis\":%d}",
+                    globalLimit, userLimit, sessionLimit, users, sessions, shapedBytes, delayedWrites, delayMillis);
+        }
+    }
+}
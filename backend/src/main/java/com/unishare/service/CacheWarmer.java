@@ -0,0 +1,246 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import com.unishare.util.OutboundHttpClient;
+import com.unishare.util.TokenBucket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetches the files most in demand into the {@link ContentCache}.
+ * <p>
+ * Every {@code UNISHARE_CACHE_WARM_INTERVAL_SECONDS} the files are ranked by
+ * download velocity over the last {@code UNISHARE_CACHE_WARM_WINDOW_MINUTES}, as
+ * recorded in {@code file_download_events}, and the top
+ * {@code UNISHARE_CACHE_WARM_TOP_N} that are not cached yet are fetched from
+ * Cloudinary one at a time. Fetching is paced to {@code UNISHARE_CACHE_WARM_KBPS}
+ * and a run stops after {@code UNISHARE_CACHE_WARM_MAX_MB} or a quarter of the
+ * cache budget, whichever is less, so warming never pushes out much of what real
+ * downloads cached. Set {@code UNISHARE_CACHE_WARM_ENABLED=false} to turn it off.
+ */
+public class CacheWarmer {
+
+    private static final String ENABLED_ENV = "UNISHARE_CACHE_WARM_ENABLED";
+    private static final String INTERVAL_ENV = "UNISHARE_CACHE_WARM_INTERVAL_SECONDS";
+    private static final String WINDOW_ENV = "UNISHARE_CACHE_WARM_WINDOW_MINUTES";
+    private static final String TOP_N_ENV = "UNISHARE_CACHE_WARM_TOP_N";
+    private static final String RATE_ENV = "UNISHARE_CACHE_WARM_KBPS";
+    private static final String RUN_BUDGET_ENV = "UNISHARE_CACHE_WARM_MAX_MB";
+    // A single download in the window is not a trend
+    private static final int MIN_DOWNLOADS = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MonitoringService monitoringService;
+    private final ContentCache contentCache;
+    private final long intervalSeconds;
+    private final Duration window;
+    private final int topN;
+    private final long runBudgetBytes;
+    private final TokenBucket bucket;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong alreadyCached = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private volatile Instant lastRunAt;
+    private volatile long lastRunMillis;
+
+    public CacheWarmer(MonitoringService monitoringService, ContentCache contentCache) {
+        this(monitoringService, contentCache,
+                ServerConfig.readPositiveInt(INTERVAL_ENV, 300),
+                Duration.ofMinutes(ServerConfig.readPositiveInt(WINDOW_ENV, 60)),
+                ServerConfig.readPositiveInt(TOP_N_ENV, 20),
+                ServerConfig.readPositiveInt(RATE_ENV, 1024) * 1024L,
+                ServerConfig.readPositiveInt(RUN_BUDGET_ENV, 256) * 1024L * 1024L);
+    }
+
+    /**
+     * @param rateBytesPerSecond pace of prefetching from Cloudinary
+     * @param runBudgetBytes     most bytes fetched in one run, further capped at a
+     *                           quarter of the cache budget
+     */
+    public CacheWarmer(MonitoringService monitoringService, ContentCache contentCache, long intervalSeconds,
+                       Duration window, int topN, long rateBytesPerSecond, long runBudgetBytes) {
+        this.monitoringService = monitoringService;
+        this.contentCache = contentCache;
+        this.intervalSeconds = intervalSeconds;
+        this.window = window;
+        this.topN = topN;
+        this.runBudgetBytes = Math.min(runBudgetBytes, contentCache.getBudgetBytes() / 4);
+        this.bucket = new TokenBucket(rateBytesPerSecond);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CacheWarmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(System.getenv(ENABLED_ENV));
+    }
+
+    public void start() {
+        // First run after one interval, so startup traffic is not competed with
+        scheduler.scheduleWithFixedDelay(this::warmSafely, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        System.out.println("✅ Cache warmer: top " + topN + " files of the last " + window.toMinutes()
+                + " min every " + intervalSeconds + " s, at " + bucket.getRate() / 1024 + " KB/s, "
+                + runBudgetBytes / (1024 * 1024) + " MB per run");
+    }
+
+    private void warmSafely() {
+        try {
+            warm();
+        } catch (Exception e) {
+            System.err.println("⚠️ Cache warming failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs one warming pass: ranks, then fetches what is not cached yet.
+     */
+    public void warm() throws SQLException {
+        long start = System.currentTimeMillis();
+        List<MonitoringService.TrendingFile> trending = monitoringService.findTrendingFiles(window, MIN_DOWNLOADS, topN);
+        long remaining = runBudgetBytes;
+        int fetched = 0;
+        for (MonitoringService.TrendingFile file : trending) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            String cacheKey = file.storageKey() != null ? file.storageKey() : file.secureUrl();
+            if (cacheKey == null || file.secureUrl() == null) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            if (contentCache.contains(cacheKey)) {
+                alreadyCached.incrementAndGet();
+                continue;
+            }
+            if (file.sizeBytes() > remaining || file.sizeBytes() > ServerConfig.MAX_FILE_SIZE) {
+                // Smaller files further down may still fit
+                skipped.incrementAndGet();
+                continue;
+            }
+            try {
+                long size = fetchInto(cacheKey, file.secureUrl(), remaining);
+                remaining -= size;
+                fetched++;
+                warmed.incrementAndGet();
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                System.err.println("⚠️ Failed to warm " + file.fileId() + ": " + e.getMessage());
+            }
+        }
+        runs.incrementAndGet();
+        lastRunAt = Instant.now();
+        lastRunMillis = System.currentTimeMillis() - start;
+        if (fetched > 0) {
+            System.out.println("🔥 Warmed " + fetched + " of " + trending.size() + " trending files ("
+                    + (runBudgetBytes - remaining) / 1024 + " KB) in " + lastRunMillis + " ms");
+        }
+    }
+
+    /**
+     * Downloads {@code url} at the warming pace and stores it under {@code cacheKey}.
+     *
+     * @return bytes fetched
+     */
+    private long fetchInto(String cacheKey, String url, long limit) throws IOException {
+        OutboundHttpClient http = OutboundHttpClient.shared();
+        HttpRequest request = http.newRequest(URI.create(url)).GET().build();
+        HttpResponse<InputStream> response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        Path temp = Files.createTempFile("unishare-warm-", ".part");
+        boolean stored = false;
+        try (InputStream in = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("HTTP " + response.statusCode());
+            }
+            long size = 0;
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    size += read;
+                    if (size > limit) {
+                        throw new IOException("larger than the remaining warming budget");
+                    }
+                    out.write(buffer, 0, read);
+                    bytesFetched.addAndGet(read);
+                    pace(read);
+                }
+            }
+            stored = contentCache.storePrefetched(cacheKey, temp, size);
+            if (!stored) {
+                throw new IOException("larger than the content cache");
+            }
+            return size;
+        } finally {
+            if (!stored) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private void pace(int bytes) throws InterruptedIOException {
+        long waitNanos = bucket.reserve(bytes);
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Cache warming interrupted");
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(runs.get(), warmed.get(), alreadyCached.get(), skipped.get(), failures.get(),
+                bytesFetched.get(), lastRunAt, lastRunMillis, bucket.getRate(), runBudgetBytes,
+                contentCache.getStats());
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Point-in-time warmer counters, with the content cache's, whose
+     * {@code prefetch} counters show how much warming paid off.
+     */
+    public record Stats(long runs, long warmed, long alreadyCached, long skipped, long failures,
+                        long bytesFetched, Instant lastRunAt, long lastRunMillis,
+                        long rateBytesPerSecond, long runBudgetBytes, ContentCache.Stats cache) {
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"runs\":%d,\"warmed\":%d,\"alreadyCached\":%d,\"skipped\":%d,\"failures\":%d," +
+                            "\"bytesFetched\":%d,\"lastRunAt\":%s,\"lastRunMillis\":%d," +
+                            "\"rateBytesPerSecond\":%d,\"runBudgetBytes\":%d,\"contentCache\":%s}",
+                    runs, warmed, alreadyCached, skipped, failures, bytesFetched,
+                    lastRunAt != null ? "\"" + lastRunAt + "\"" : "null", lastRunMillis,
+                    rateBytesPerSecond, runBudgetBytes, cache.toJson());
+        }
+    }
+}
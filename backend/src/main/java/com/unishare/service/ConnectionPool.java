@@ -0,0 +1,751 @@
+package com.unishare.service;
+
+import com.unishare.config.DatabaseConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small JDBC connection pool used by {@link DatabaseService}.
+ * <p>
+ * Callers receive a proxy whose {@code close()} returns the physical connection to
+ * the pool. Idle connections are reused most-recently-used first, validated when
+ * they have been idle for a while, retired after their maximum lifetime and evicted
+ * down to the minimum pool size by a background housekeeper. Connections held
+ * longer than the leak threshold are reported together with the stack trace of the
+ * code that borrowed them.
+ * <p>
+ * Each pooled connection also keeps an LRU cache of prepared statements keyed by
+ * SQL text. Closing a cached statement only returns it to the cache, so hot queries
+ * reuse the same statement object and pgjdbc promotes them to named server-side
+ * statements (after {@code prepareThreshold} executions) that skip parse and plan.
+ */
+public final class ConnectionPool {
+
+    private static final long VALIDATION_INTERVAL_MS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 30_000;
+    private static final long[] WAIT_BUCKET_BOUNDS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    /**
+     * Opens a new physical connection.
+     */
+    @FunctionalInterface
+    interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final DatabaseConfig.PoolSettings settings;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledEntry> idle = new ArrayDeque<>();
+    private final Set<PooledEntry> borrowed = ConcurrentHashMap.newKeySet();
+    // Guarded by lock; counts idle, borrowed and in-creation connections
+    private int totalConnections;
+    private boolean closed;
+
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKET_BOUNDS_MS.length + 1);
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+    private final AtomicLong statementCacheEvictions = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+
+    ConnectionPool(ConnectionFactory factory, DatabaseConfig.PoolSettings settings) {
+        this.factory = factory;
+        this.settings = settings;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionPoolHousekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep,
+                HOUSEKEEPING_INTERVAL_MS, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured connection timeout.
+     *
+     * @throws SQLTransientConnectionException if no connection became available in time
+     */
+    Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(settings.connectionTimeoutMs());
+        waiters.incrementAndGet();
+        try {
+            while (true) {
+                PooledEntry entry = null;
+                boolean create = false;
+
+                lock.lock();
+                try {
+                    while (entry == null && !create) {
+                        if (closed) {
+                            throw new SQLException("Connection pool is closed");
+                        }
+                        entry = idle.pollFirst();
+                        if (entry == null) {
+                            if (totalConnections < settings.maxSize()) {
+                                totalConnections++;
+                                create = true;
+                            } else {
+                                long remaining = deadline - System.nanoTime();
+                                if (remaining <= 0) {
+                                    timeoutCount.incrementAndGet();
+                                    reportLeaks(true);
+                                    throw new SQLTransientConnectionException(
+                                            "Timed out after " + settings.connectionTimeoutMs()
+                                                    + " ms waiting for a database connection (active="
+                                                    + borrowed.size() + ", max=" + settings.maxSize() + ")");
+                                }
+                                available.awaitNanos(remaining);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection", e);
+                } finally {
+                    lock.unlock();
+                }
+
+                if (create) {
+                    entry = openEntry();
+                } else if (!isUsable(entry)) {
+                    destroy(entry);
+                    continue;
+                }
+
+                entry.markBorrowed(settings.leakDetectionThresholdMs() > 0);
+                borrowed.add(entry);
+                borrowCount.incrementAndGet();
+                recordWait(System.nanoTime() - start);
+                return entry.newHandle();
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a snapshot of pool metrics.
+     */
+    public PoolStats getStats() {
+        int idleCount;
+        int total;
+        lock.lock();
+        try {
+            idleCount = idle.size();
+            total = totalConnections;
+        } finally {
+            lock.unlock();
+        }
+        long[] histogram = new long[waitHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = waitHistogram.get(i);
+        }
+        return new PoolStats(
+                borrowed.size(),
+                idleCount,
+                total,
+                waiters.get(),
+                settings.minSize(),
+                settings.maxSize(),
+                borrowCount.get(),
+                timeoutCount.get(),
+                createdCount.get(),
+                destroyedCount.get(),
+                leakCount.get(),
+                TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()),
+                histogram,
+                statementCacheHits.get(),
+                statementCacheMisses.get(),
+                statementCacheEvictions.get());
+    }
+
+    /**
+     * Closes idle connections and stops the housekeeper. Borrowed connections are
+     * closed when their holders return them.
+     */
+    void close() {
+        List<PooledEntry> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        toClose.forEach(this::destroy);
+    }
+
+    /**
+     * Opens connections until the pool holds its minimum size. Failures are logged, not thrown,
+     * so start-up does not depend on the warm-up succeeding.
+     */
+    void warmUp() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || totalConnections >= settings.minSize()) {
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                PooledEntry entry = openEntry();
+                returnToIdle(entry);
+            } catch (SQLException e) {
+                System.err.println("⚠️ Connection pool warm-up failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private PooledEntry openEntry() throws SQLException {
+        try {
+            Connection connection = factory.create();
+            createdCount.incrementAndGet();
+            return new PooledEntry(connection);
+        } catch (SQLException | RuntimeException e) {
+            releaseSlot();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledEntry entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.createdAt >= settings.maxLifetimeMs()) {
+            return false;
+        }
+        try {
+            if (entry.connection.isClosed()) {
+                return false;
+            }
+            if (now - entry.lastReturnedAt >= VALIDATION_INTERVAL_MS) {
+                return entry.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledEntry entry) {
+        borrowed.remove(entry);
+        long heldMs = System.currentTimeMillis() - entry.borrowedAt;
+        if (entry.leakReported) {
+            System.err.println("ℹ️ Previously reported connection leak returned after " + heldMs + " ms");
+        }
+
+        boolean reusable;
+        try {
+            reusable = !entry.connection.isClosed()
+                    && System.currentTimeMillis() - entry.createdAt < settings.maxLifetimeMs();
+            if (reusable && !entry.connection.getAutoCommit()) {
+                entry.connection.rollback();
+                entry.connection.setAutoCommit(true);
+            }
+            if (reusable) {
+                entry.connection.clearWarnings();
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (reusable) {
+            returnToIdle(entry);
+        } else {
+            destroy(entry);
+        }
+    }
+
+    private void returnToIdle(PooledEntry entry) {
+        entry.lastReturnedAt = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (!closed) {
+                idle.offerFirst(entry);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        destroy(entry);
+    }
+
+    private void destroy(PooledEntry entry) {
+        try {
+            entry.connection.close();
+        } catch (SQLException ignored) {
+            // connection is being discarded anyway
+        }
+        destroyedCount.incrementAndGet();
+        releaseSlot();
+    }
+
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            List<PooledEntry> evicted = new ArrayList<>();
+            lock.lock();
+            try {
+                // Oldest idle connections sit at the tail of the deque
+                var iterator = idle.descendingIterator();
+                int remaining = totalConnections;
+                while (iterator.hasNext()) {
+                    PooledEntry entry = iterator.next();
+                    boolean expired = now - entry.createdAt >= settings.maxLifetimeMs();
+                    boolean idleTooLong = now - entry.lastReturnedAt >= settings.idleTimeoutMs()
+                            && remaining > settings.minSize();
+                    if (expired || idleTooLong) {
+                        iterator.remove();
+                        evicted.add(entry);
+                        remaining--;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            evicted.forEach(this::destroy);
+            reportLeaks(false);
+            warmUp();
+        } catch (RuntimeException e) {
+            System.err.println("⚠️ Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logs connections held longer than the leak threshold. Each borrow is reported
+     * once by the housekeeper; a borrow timeout reports every long-held connection.
+     */
+    private void reportLeaks(boolean onTimeout) {
+        long threshold = settings.leakDetectionThresholdMs();
+        if (threshold <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledEntry entry : borrowed) {
+            long heldMs = now - entry.borrowedAt;
+            if (heldMs < threshold || (entry.leakReported && !onTimeout)) {
+                continue;
+            }
+            if (!entry.leakReported) {
+                entry.leakReported = true;
+                leakCount.incrementAndGet();
+            }
+            System.err.println("⚠️ Possible connection leak: connection held for " + heldMs + " ms by "
+                    + entry.borrowerThread);
+            if (entry.borrowTrace != null) {
+                entry.borrowTrace.printStackTrace();
+            }
+        }
+    }
+
+    private void recordWait(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = WAIT_BUCKET_BOUNDS_MS.length;
+        for (int i = 0; i < WAIT_BUCKET_BOUNDS_MS.length; i++) {
+            if (millis < WAIT_BUCKET_BOUNDS_MS[i]) {
+                bucket = i;
+                break;
+            }
+        }
+        waitHistogram.incrementAndGet(bucket);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * A physical connection plus its pool bookkeeping.
+     */
+    private final class PooledEntry {
+        final Connection connection;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastReturnedAt = createdAt;
+        volatile long borrowedAt;
+        volatile String borrowerThread;
+        volatile Throwable borrowTrace;
+        volatile boolean leakReported;
+        private final Map<String, CachedStatement> statementCache;
+
+        PooledEntry(Connection connection) {
+            this.connection = connection;
+            int capacity = settings.statementCacheSize();
+            this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    statementCacheEvictions.incrementAndGet();
+                    eldest.getValue().evict();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Returns the cached statement for {@code sql}, preparing it on a miss. If the
+         * cached statement is still open elsewhere on this connection (nested use of
+         * the same SQL), an uncached statement is returned instead.
+         */
+        PreparedStatement prepareCached(String sql, Connection handle) throws SQLException {
+            synchronized (statementCache) {
+                CachedStatement cached = statementCache.get(sql);
+                if (cached != null && !cached.inUse && !cached.statement.isClosed()) {
+                    statementCacheHits.incrementAndGet();
+                    return cached.checkOut(handle);
+                }
+                statementCacheMisses.incrementAndGet();
+                PreparedStatement statement = connection.prepareStatement(sql);
+                if (cached != null && cached.inUse) {
+                    return statement;
+                }
+                cached = new CachedStatement(statement);
+                statementCache.put(sql, cached);
+                return cached.checkOut(handle);
+            }
+        }
+
+        void markBorrowed(boolean captureTrace) {
+            borrowedAt = System.currentTimeMillis();
+            borrowerThread = Thread.currentThread().getName();
+            borrowTrace = captureTrace ? new Throwable("Connection borrowed here") : null;
+            leakReported = false;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    new Handle(this));
+        }
+    }
+
+    /**
+     * Per-borrow view of a pooled connection. Closing it returns the connection to
+     * the pool exactly once; any later use fails as it would on a closed connection.
+     */
+    private final class Handle implements InvocationHandler {
+        private final PooledEntry entry;
+        private volatile boolean released;
+
+        Handle(PooledEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(entry);
+                    }
+                    return null;
+                case "prepareStatement":
+                    if (!released && args.length == 1 && settings.statementCacheSize() > 0) {
+                        return entry.prepareCached((String) args[0], (Connection) proxy);
+                    }
+                    break;
+                case "isClosed":
+                    return released || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.connection + "]";
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(entry.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A physical prepared statement owned by a pooled connection's cache.
+     */
+    private static final class CachedStatement {
+        final PreparedStatement statement;
+        volatile boolean inUse;
+        volatile boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement checkOut(Connection handle) {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class},
+                    new StatementHandle(this, handle));
+        }
+
+        /**
+         * Called under the cache lock when the LRU drops this statement.
+         */
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        void checkIn() {
+            inUse = false;
+            if (evicted) {
+                closeQuietly();
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+            } catch (SQLException e) {
+                evicted = true;
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // statement is being discarded anyway
+            }
+        }
+    }
+
+    /**
+     * Per-use view of a cached statement. Closing it checks the statement back into
+     * the cache instead of closing it on the server.
+     */
+    private static final class StatementHandle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection connectionHandle;
+        private boolean closed;
+
+        StatementHandle(CachedStatement cached, Connection connectionHandle) {
+            this.cached = cached;
+            this.connectionHandle = connectionHandle;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cached.checkIn();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || cached.statement.isClosed();
+                case "getConnection":
+                    return connectionHandle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Point-in-time pool metrics. The wait histogram counts borrows whose wait fell
+     * below each bound in {@link #getWaitBucketBoundsMs()}, with a final overflow bucket.
+     */
+    public static final class PoolStats {
+        private final int active;
+        private final int idle;
+        private final int total;
+        private final int waiters;
+        private final int minSize;
+        private final int maxSize;
+        private final long borrows;
+        private final long timeouts;
+        private final long created;
+        private final long destroyed;
+        private final long leaks;
+        private final long maxWaitMicros;
+        private final long[] waitHistogram;
+        private final long statementCacheHits;
+        private final long statementCacheMisses;
+        private final long statementCacheEvictions;
+
+        PoolStats(int active, int idle, int total, int waiters, int minSize, int maxSize, long borrows,
+                long timeouts, long created, long destroyed, long leaks, long maxWaitMicros, long[] waitHistogram,
+                long statementCacheHits, long statementCacheMisses, long statementCacheEvictions) {
+            this.active = active;
+            this.idle = idle;
+            this.total = total;
+            this.waiters = waiters;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.borrows = borrows;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.leaks = leaks;
+            this.maxWaitMicros = maxWaitMicros;
+            this.waitHistogram = waitHistogram;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+            this.statementCacheEvictions = statementCacheEvictions;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getWaiters() {
+            return waiters;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getLeaks() {
+            return leaks;
+        }
+
+        public long[] getWaitHistogram() {
+            return waitHistogram.clone();
+        }
+
+        public long getStatementCacheHits() {
+            return statementCacheHits;
+        }
+
+        public long getStatementCacheMisses() {
+            return statementCacheMisses;
+        }
+
+        public double getStatementCacheHitRatio() {
+            long lookups = statementCacheHits + statementCacheMisses;
+            return lookups == 0 ? 0.0 : (double) statementCacheHits / lookups;
+        }
+
+        public static long[] getWaitBucketBoundsMs() {
+            return WAIT_BUCKET_BOUNDS_MS.clone();
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{");
+            json.append("\"active\":").append(active).append(",");
+            json.append("\"idle\":").append(idle).append(",");
+            json.append("\"total\":").append(total).append(",");
+            json.append("\"waiters\":").append(waiters).append(",");
+            json.append("\"minSize\":").append(minSize).append(",");
+            json.append("\"maxSize\":").append(maxSize).append(",");
+            json.append("\"borrows\":").append(borrows).append(",");
+            json.append("\"timeouts\":").append(timeouts).append(",");
+            json.append("\"created\":").append(created).append(",");
+            json.append("\"destroyed\":").append(destroyed).append(",");
+            json.append("\"leaks\":").append(leaks).append(",");
+            json.append("\"maxWaitMicros\":").append(maxWaitMicros).append(",");
+            json.append("\"waitHistogram\":[");
+            for (int i = 0; i < waitHistogram.length; i++) {
+                if (i > 0) {
+                    json.append(",");
+                }
+                String label = i < WAIT_BUCKET_BOUNDS_MS.length
+                        ? "<" + WAIT_BUCKET_BOUNDS_MS[i] + "ms"
+                        : ">=" + WAIT_BUCKET_BOUNDS_MS[WAIT_BUCKET_BOUNDS_MS.length - 1] + "ms";
+                json.append("{\"bucket\":\"").append(label).append("\",\"count\":").append(waitHistogram[i]).append("}");
+            }
+            json.append("],");
+            json.append("\"statementCache\":{");
+            json.append("\"hits\":").append(statementCacheHits).append(",");
+            json.append("\"misses\":").append(statementCacheMisses).append(",");
+            json.append("\"evictions\":").append(statementCacheEvictions).append(",");
+            json.append("\"hitRatio\":").append(String.format(Locale.ROOT, "%.3f", getStatementCacheHitRatio()));
+            json.append("}");
+            json.append("}");
+            return json.toString();
+        }
+    }
+}
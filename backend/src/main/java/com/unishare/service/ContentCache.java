@@ -0,0 +1,298 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk LRU cache of Cloudinary content keyed by storage key.
+ * <p>
+ * Completed downloads are moved into the cache instead of being deleted, so later
+ * downloads of the same object are served from local disk. Entries are handed out
+ * as {@link Lease}s; a leased entry is never evicted, so a file being served cannot
+ * disappear underneath the response. The cache is bounded by a byte budget and
+ * starts empty on every run. Entries stored ahead of demand by the
+ * {@link CacheWarmer} are marked, so their hits and the ones evicted unused are
+ * counted apart.
+ */
+public class ContentCache {
+
+    private static final String CACHE_DIR_ENV = "UNISHARE_CONTENT_CACHE_DIR";
+    private static final String CACHE_BUDGET_ENV = "UNISHARE_CONTENT_CACHE_MAX_MB";
+    private static final int DEFAULT_BUDGET_MB = 2048;
+
+    private final Path directory;
+    private final long budgetBytes;
+
+    // Guarded by "this"; access order gives LRU iteration
+    private final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchBytesSaved = new AtomicLong();
+    private final AtomicLong prefetchUnused = new AtomicLong();
+
+    public ContentCache() throws IOException {
+        this(resolveDirectory(), ServerConfig.readPositiveInt(CACHE_BUDGET_ENV, DEFAULT_BUDGET_MB) * 1024L * 1024L);
+    }
+
+    public ContentCache(Path directory, long budgetBytes) throws IOException {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        Files.createDirectories(directory);
+        purgeLeftovers();
+        System.out.println("✅ Content cache at " + directory + " with a "
+                + (budgetBytes / (1024 * 1024)) + " MB budget");
+    }
+
+    /**
+     * Returns a lease on the cached content for {@code storageKey}, or {@code null}
+     * on a miss. The caller must {@link Lease#release() release} the lease.
+     */
+    public Lease acquire(String storageKey) {
+        synchronized (this) {
+            Entry entry = entries.get(storageKey);
+            if (entry != null) {
+                entry.leases++;
+                hits.incrementAndGet();
+                bytesSaved.addAndGet(entry.size);
+                if (entry.prefetched) {
+                    entry.used = true;
+                    prefetchHits.incrementAndGet();
+                    prefetchBytesSaved.addAndGet(entry.size);
+                }
+                return new Lease(entry);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Moves a fully downloaded file into the cache and returns a lease on it. If
+     * the key was cached concurrently the source is deleted and the existing entry
+     * is leased instead. Returns {@code null}, leaving the source untouched, when
+     * the content is larger than the whole budget.
+     */
+    public Lease adopt(String storageKey, Path source, long size) throws IOException {
+        if (size > budgetBytes) {
+            return null;
+        }
+        Entry entry = insert(storageKey, source, size, false);
+        return new Lease(entry);
+    }
+
+    /**
+     * Moves content fetched ahead of demand into the cache, unleased. Returns
+     * {@code false}, leaving the source untouched, when the content is larger than
+     * the whole budget; a concurrently cached copy wins and the source is deleted.
+     */
+    public boolean storePrefetched(String storageKey, Path source, long size) throws IOException {
+        if (size > budgetBytes) {
+            return false;
+        }
+        Entry entry = insert(storageKey, source, size, true);
+        release(entry);
+        return true;
+    }
+
+    /**
+     * Whether {@code storageKey} is cached. Unlike {@link #acquire(String)} this
+     * neither counts as a lookup nor refreshes the entry's LRU position.
+     */
+    public synchronized boolean contains(String storageKey) {
+        return entries.containsKey(storageKey);
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Moves {@code source} in and returns the entry for the key with one lease
+     * taken on it.
+     */
+    private Entry insert(String storageKey, Path source, long size, boolean prefetch) throws IOException {
+        Path target = directory.resolve(hash(storageKey) + "-" + UUID.randomUUID() + ".blob");
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+
+        Entry entry;
+        boolean duplicate = false;
+        synchronized (this) {
+            entry = entries.get(storageKey);
+            if (entry != null) {
+                duplicate = true;
+            } else {
+                entry = new Entry(target, size, prefetch);
+                entries.put(storageKey, entry);
+                totalBytes += size;
+                if (prefetch) {
+                    prefetched.incrementAndGet();
+                }
+            }
+            entry.leases++;
+        }
+        if (duplicate) {
+            Files.deleteIfExists(target);
+        }
+        evictIfOverBudget();
+        return entry;
+    }
+
+    private void release(Entry entry) {
+        synchronized (this) {
+            entry.leases--;
+        }
+        evictIfOverBudget();
+    }
+
+    public Stats getStats() {
+        synchronized (this) {
+            return new Stats(entries.size(), totalBytes, budgetBytes,
+                    hits.get(), misses.get(), bytesSaved.get(), evictions.get(),
+                    prefetched.get(), prefetchHits.get(), prefetchBytesSaved.get(), prefetchUnused.get());
+        }
+    }
+
+    private void evictIfOverBudget() {
+        List<Path> doomed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> lru = entries.values().iterator();
+            while (totalBytes > budgetBytes && lru.hasNext()) {
+                Entry candidate = lru.next();
+                if (candidate.leases > 0) {
+                    continue;
+                }
+                lru.remove();
+                totalBytes -= candidate.size;
+                evictions.incrementAndGet();
+                if (candidate.prefetched && !candidate.used) {
+                    prefetchUnused.incrementAndGet();
+                }
+                doomed.add(candidate.file);
+            }
+        }
+        for (Path file : doomed) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("⚠️ Failed to delete cached file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void purgeLeftovers() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.blob")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static Path resolveDirectory() {
+        String configured = System.getenv(CACHE_DIR_ENV);
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured.trim());
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "unishare-content-cache");
+    }
+
+    private static String hash(String storageKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(storageKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static final class Entry {
+        final Path file;
+        final long size;
+        final boolean prefetched;
+        // Guarded by the cache monitor
+        int leases;
+        boolean used;
+
+        Entry(Path file, long size, boolean prefetched) {
+            this.file = file;
+            this.size = size;
+            this.prefetched = prefetched;
+        }
+    }
+
+    /**
+     * A pinned reference to a cached file. Releasing more than once is harmless.
+     */
+    public final class Lease {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Path getFile() {
+            return entry.file;
+        }
+
+        public long getSize() {
+            return entry.size;
+        }
+
+        public void release() {
+            synchronized (ContentCache.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            ContentCache.this.release(entry);
+        }
+    }
+
+    /**
+     * Point-in-time cache counters. The {@code prefetch} ones cover entries stored
+     * ahead of demand: how many were stored, the hits and bytes saved they served,
+     * and how many were evicted before anyone used them.
+     */
+    public record Stats(int entries, long bytes, long budgetBytes,
+                        long hits, long misses, long bytesSaved, long evictions,
+                        long prefetched, long prefetchHits, long prefetchBytesSaved, long prefetchUnused) {
+
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0.0 : (double) hits / lookups;
+        }
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"entries\":%d,\"bytes\":%d,\"budgetBytes\":%d,\"hits\":%d,\"misses\":%d," +
+                            "\"hitRatio\":%.3f,\"bytesSaved\":%d,\"evictions\":%d," +
+                            "\"prefetched\":%d,\"prefetchHits\":%d,\"prefetchBytesSaved\":%d,\"prefetchUnused\":%d}",
+                    entries, bytes, budgetBytes, hits, misses, hitRatio(), bytesSaved, evictions,
+                    prefetched, prefetchHits, prefetchBytesSaved, prefetchUnused);
+        }
+    }
+}
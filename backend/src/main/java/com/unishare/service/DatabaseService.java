@@ -10,7 +10,7 @@ import java.time.Instant;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Lightweight database service responsible for creating JDBC connections to the Neon database.
+ * Lightweight database service responsible for handing out pooled JDBC connections to the Neon database.
  * <p>
  * Usage:
  * <pre>
@@ -26,10 +26,12 @@ public final class DatabaseService {
 
     private final DatabaseConfig.DatabaseCredentials credentials;
     private final AtomicBoolean driverLoaded = new AtomicBoolean(false);
+    private final ConnectionPool pool;
 
     private DatabaseService() {
         this.credentials = DatabaseConfig.loadCredentials();
         loadDriver();
+        this.pool = new ConnectionPool(this::openPhysicalConnection, DatabaseConfig.loadPoolSettings());
     }
 
     public static DatabaseService getInstance() {
@@ -37,12 +39,35 @@ public final class DatabaseService {
     }
 
     /**
-     * Provides a fresh JDBC connection each time it is called. The caller is responsible for closing it.
+     * Borrows a JDBC connection from the pool. The caller is responsible for closing it, which returns
+     * it to the pool.
      *
      * @return an open {@link Connection}
-     * @throws SQLException if the database cannot be reached
+     * @throws SQLException if the database cannot be reached or no connection frees up in time
      */
     public Connection getConnection() throws SQLException {
+        return pool.borrow();
+    }
+
+    /**
+     * Opens the minimum number of pooled connections so the first requests skip the handshake.
+     */
+    public void warmUpPool() {
+        pool.warmUp();
+    }
+
+    public ConnectionPool.PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /**
+     * Closes idle pooled connections. Intended for server shutdown.
+     */
+    public void shutdown() {
+        pool.close();
+    }
+
+    private Connection openPhysicalConnection() throws SQLException {
         return DriverManager.getConnection(credentials.jdbcUrl(), credentials.properties());
     }
 
@@ -1,11 +1,25 @@
 package com.unishare.service;
 
+import com.unishare.config.ServerConfig;
 import com.unishare.model.FileInfo;
+import com.unishare.util.JsonUtils;
+import com.unishare.util.OutboundHttpClient;
+import com.unishare.util.RequestExecutors;
+import com.unishare.util.ThroughputMeter;
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.Map;
 import java.util.Optional;
@@ -14,60 +28,138 @@ import java.util.Optional;
 
 public class DownloadManager {
     
-    private static final int MAX_CONCURRENT_DOWNLOADS = 10;
-    private static final int DOWNLOAD_TIMEOUT_SECONDS = 300; // 5 minutes
-    private static final int BUFFER_SIZE = 8192; // 8KB buffer for streaming
+    private static final String MAX_IN_FLIGHT_ENV = "UNISHARE_DOWNLOAD_MAX_IN_FLIGHT";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 256;
     private static final int MAX_RETRY_ATTEMPTS = 3;
+    // A fetch whose body makes no progress for this long is abandoned and retried
+    private static final long STALL_TIMEOUT_MILLIS = 60_000;
+    private static final String SESSION_TTL_ENV = "UNISHARE_DOWNLOAD_SESSION_TTL_MS";
+    private static final String RETAINED_BUDGET_ENV = "UNISHARE_DOWNLOAD_RETAINED_MAX_MB";
+    private static final int DEFAULT_SESSION_TTL_MS = 10 * 60 * 1000;
+    private static final int DEFAULT_RETAINED_BUDGET_MB = 2048;
     
-    // Thread pool for handling download requests concurrently
+    // Runs the blocking steps of a fetch (metadata lookup, cache probe); the transfer itself is asynchronous
     private final ExecutorService downloadExecutor;
     
-    // Queue to manage download requests when max concurrent limit is reached
-    private final BlockingQueue<DownloadRequest> downloadQueue;
+    // Resumes paced transfers and watches for stalled ones
+    private final ScheduledExecutorService pacer;
+    
+    // Per-user queues served round-robin; limits in-flight fetches globally and per user
+    private final FairDownloadScheduler scheduler;
+    private final int maxInFlight;
     
     // Track active downloads
     private final Map<String, DownloadSession> activeSessions;
     
-    // Semaphore to control concurrent download limit
-    private final Semaphore downloadSemaphore;
-    
-    // Bandwidth monitoring (bytes per second)
-    private final AtomicLong totalBytesDownloaded = new AtomicLong(0);
-    private volatile long lastResetTime = System.currentTimeMillis();
+    // Origin bytes per second, sliding 1s/10s/60s windows
+    private final ThroughputMeter throughput = new ThroughputMeter();
     
     private final FileMetadataService metadataService;
     
-    public DownloadManager(FileMetadataService metadataService) {
+    // Completed downloads are spooled to disk rather than kept on the heap
+    private final DownloadSpool spool;
+    
+    // Completed downloads move into this cache so repeat downloads skip Cloudinary (may be null)
+    private final ContentCache contentCache;
+    
+    // Shapes Cloudinary fetches and file serving to the configured bandwidth limits (may be null)
+    private final BandwidthShaper shaper;
+    
+    // Finished sessions idle longer than this are reaped and their content released
+    private final long sessionTtlMillis;
+    
+    // Bytes of content pinned by sessions; new downloads are rejected above the budget
+    private final long retainedBudgetBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private final AtomicLong reapedSessions = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    
+    // In-flight fetches by file; concurrent requests for the same file share one
+    private final Map<UUID, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    
+    // Notified of session state changes, e.g. to push progress events to clients
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    public DownloadManager(FileMetadataService metadataService) throws IOException {
+        this(metadataService, new DownloadSpool(), new ContentCache(), new BandwidthShaper());
+    }
+    
+    public DownloadManager(FileMetadataService metadataService, DownloadSpool spool, ContentCache contentCache) {
+        this(metadataService, spool, contentCache, null);
+    }
+    
+    public DownloadManager(FileMetadataService metadataService, DownloadSpool spool, ContentCache contentCache,
+                           BandwidthShaper shaper) {
         this.metadataService = metadataService;
-        this.downloadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
-        this.downloadQueue = new LinkedBlockingQueue<>();
+        this.spool = spool;
+        this.contentCache = contentCache;
+        this.shaper = shaper;
+        this.sessionTtlMillis = ServerConfig.readPositiveInt(SESSION_TTL_ENV, DEFAULT_SESSION_TTL_MS);
+        this.retainedBudgetBytes = ServerConfig.readPositiveInt(RETAINED_BUDGET_ENV, DEFAULT_RETAINED_BUDGET_MB) * 1024L * 1024L;
+        this.maxInFlight = ServerConfig.readPositiveInt(MAX_IN_FLIGHT_ENV, DEFAULT_MAX_IN_FLIGHT);
+        // Only metadata lookups block here; transfers themselves hold no thread
+        this.downloadExecutor = RequestExecutors.newVirtualOrFixed("DownloadWorker",
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        this.pacer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DownloadPacer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = new FairDownloadScheduler(downloadExecutor, maxInFlight);
         this.activeSessions = new ConcurrentHashMap<>();
-        this.downloadSemaphore = new Semaphore(MAX_CONCURRENT_DOWNLOADS);
-        
-        // Start queue processor thread
-        startQueueProcessor();
         
-        // Start bandwidth monitoring thread
-        startBandwidthMonitor();
+        // Start reaping sessions nobody collects
+        startSessionReaper();
         
-        System.out.println("✅ DownloadManager initialized with " + MAX_CONCURRENT_DOWNLOADS + " concurrent slots");
+        System.out.println("✅ DownloadManager initialized with " + maxInFlight + " in-flight fetches");
     }
     
     /**
-     * Initiates a download request and returns a session ID for tracking
+     * Initiates a download request and returns a session ID for tracking.
+     * If the same file is already queued or being fetched, the new session joins
+     * that fetch instead of starting another one.
+     *
+     * @throws CapacityExceededException if finished downloads already pin more
+     *                                   content than the retained-bytes budget
      */
     public String initiateDownload(UUID fileId, String userEmail) {
+        if (retainedBytes.get() >= retainedBudgetBytes && !flights.containsKey(fileId)) {
+            // Joining an existing fetch pins no extra content, so only new fetches are refused
+            rejectedSessions.incrementAndGet();
+            throw new CapacityExceededException("Too many downloads are waiting to be collected; try again shortly");
+        }
+        
         String sessionId = UUID.randomUUID().toString();
-        DownloadRequest request = new DownloadRequest(sessionId, fileId, userEmail, System.currentTimeMillis());
+        DownloadSession session = new DownloadSession(sessionId, DownloadStatus.QUEUED);
         
-        try {
-            downloadQueue.offer(request, 5, TimeUnit.SECONDS);
-            System.out.println("📥 Download request queued: " + sessionId + " for file: " + fileId);
+        // Register the session up front so status and event subscribers can find it while it waits
+        activeSessions.put(sessionId, session);
+        
+        Flight[] created = new Flight[1];
+        Flight flight = flights.compute(fileId, (id, existing) -> {
+            if (existing != null && existing.attach(session)) {
+                return existing;
+            }
+            Flight fresh = new Flight(id, userEmail != null ? userEmail : "anonymous");
+            fresh.attach(session);
+            created[0] = fresh;
+            return fresh;
+        });
+        
+        if (created[0] == null) {
+            coalescedRequests.incrementAndGet();
+            System.out.println("🔗 Download request " + sessionId + " joined in-flight fetch of file: " + fileId);
             return sessionId;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("Download request queue is full", e);
         }
+        
+        DownloadRequest request = new DownloadRequest(sessionId, fileId, userEmail, System.currentTimeMillis());
+        request.flight = flight;
+        flight.ticket = scheduler.submit(flight.user, () -> processDownload(request),
+                position -> updateQueuePosition(flight, position));
+        System.out.println("📥 Download request queued: " + sessionId + " for file: " + fileId);
+        return sessionId;
     }
     
     /**
@@ -78,13 +170,39 @@ public class DownloadManager {
     }
     
     /**
-     * Cancel an active download
+     * Bandwidth shaper applied to downloads, or {@code null} if unshaped.
+     */
+    public BandwidthShaper getShaper() {
+        return shaper;
+    }
+    
+    /**
+     * Cache of finished downloads, or {@code null} if caching is off.
+     */
+    public ContentCache getContentCache() {
+        return contentCache;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Cancel an active download. The shared fetch keeps running for any other
+     * sessions attached to it and stops once none are left.
      */
     public boolean cancelDownload(String sessionId) {
         DownloadSession session = activeSessions.get(sessionId);
         if (session != null) {
             session.cancel();
             activeSessions.remove(sessionId);
+            Flight flight = session.flight;
+            if (flight != null && flight.detach(session) && flight.ticket != null && scheduler.cancel(flight.ticket)) {
+                // Nobody else is waiting for this file; drop it from the queue
+                flights.remove(flight.fileId, flight);
+            }
+            releaseContent(session);
+            publish(session);
             System.out.println("❌ Download cancelled: " + sessionId);
             return true;
         }
@@ -97,181 +215,348 @@ public class DownloadManager {
     public DownloadStats getStatistics() {
         return new DownloadStats(
             activeSessions.size(),
-            downloadQueue.size(),
-            downloadSemaphore.availablePermits(),
-            getCurrentBandwidthUsage()
+            scheduler.getQueuedCount(),
+            maxInFlight - scheduler.getRunningCount(),
+            throughput.rate(10),
+            spool.getUsedBytes(),
+            spool.getBudgetBytes(),
+            contentCache != null ? contentCache.getStats() : null,
+            flights.size(),
+            coalescedRequests.get(),
+            shaper != null ? shaper.getStats() : null,
+            new RetentionStats(retainedBytes.get(), retainedBudgetBytes, sessionTtlMillis,
+                    reapedSessions.get(), reclaimedBytes.get(), rejectedSessions.get()),
+            throughput.snapshot(),
+            getTransfers()
         );
     }
     
-    private void startQueueProcessor() {
-        Thread queueProcessor = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    DownloadRequest request = downloadQueue.take();
-                    downloadExecutor.submit(() -> processDownload(request));
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
+    /**
+     * Rates of the fetches currently streaming from the origin. Keyed by file rather
+     * than session, since session ids grant access to the downloaded content.
+     */
+    private List<TransferStats> getTransfers() {
+        List<TransferStats> transfers = new ArrayList<>();
+        for (Flight flight : flights.values()) {
+            List<DownloadSession> sessions = flight.sessions;
+            if (sessions.isEmpty()) {
+                continue;
             }
-        });
-        queueProcessor.setDaemon(true);
-        queueProcessor.setName("DownloadQueueProcessor");
-        queueProcessor.start();
+            DownloadSession session = sessions.get(0);
+            if (session.getStatus() == DownloadStatus.DOWNLOADING) {
+                transfers.add(new TransferStats(flight.fileId, sessions.size(), session.getBytesDownloaded(),
+                        session.getTotalBytes(), session.getThroughput(), session.getEtaSeconds()));
+            }
+        }
+        return transfers;
     }
     
-    private void startBandwidthMonitor() {
-        Thread bandwidthMonitor = new Thread(() -> {
+    private void startSessionReaper() {
+        long interval = Math.max(1000, Math.min(sessionTtlMillis / 2, 30_000));
+        Thread reaper = new Thread(() -> {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    Thread.sleep(5000); // Reset every 5 seconds
-                    resetBandwidthCounter();
+                    Thread.sleep(interval);
+                    reapIdleSessions();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
                 }
             }
         });
-        bandwidthMonitor.setDaemon(true);
-        bandwidthMonitor.setName("BandwidthMonitor");
-        bandwidthMonitor.start();
+        reaper.setDaemon(true);
+        reaper.setName("DownloadSessionReaper");
+        reaper.start();
     }
     
-    private void processDownload(DownloadRequest request) {
-        DownloadSession session = null;
-        try {
-            // Acquire semaphore permit (blocks if max concurrent limit reached)
-            downloadSemaphore.acquire();
-            
-            session = new DownloadSession(request.sessionId, DownloadStatus.STARTING);
-            activeSessions.put(request.sessionId, session);
-            
-            try {
-                executeDownload(request, session);
-            } finally {
-                // Always release the permit and clean up
-                downloadSemaphore.release();
-                if (session.getStatus() == DownloadStatus.CANCELLED || session.getStatus() == DownloadStatus.FAILED) {
-                    activeSessions.remove(request.sessionId);
-                }
+    /**
+     * Removes finished sessions that nobody has touched within the TTL, e.g. because
+     * the browser tab was closed before the file was collected.
+     */
+    void reapIdleSessions() {
+        for (DownloadSession session : activeSessions.values()) {
+            if (!session.getStatus().isTerminal() || session.getIdleMillis() < sessionTtlMillis) {
+                continue;
+            }
+            if (activeSessions.remove(session.getSessionId(), session)) {
+                long bytes = session.getContentLength();
+                releaseContent(session);
+                reapedSessions.incrementAndGet();
+                reclaimedBytes.addAndGet(bytes);
+                System.out.println("🧹 Reaped idle download session " + session.getSessionId() +
+                                 " (" + formatBytes(bytes) + ")");
             }
-            
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            System.err.println("❌ Download interrupted: " + request.sessionId);
         }
     }
     
-    private void executeDownload(DownloadRequest request, DownloadSession session) {
-        int retryCount = 0;
+    private CompletableFuture<Void> processDownload(DownloadRequest request) {
+        Flight flight = request.flight;
+        if (!flight.start()) {
+            // Every session was cancelled while queued
+            flights.remove(request.fileId, flight);
+            return CompletableFuture.completedFuture(null);
+        }
         
-        while (retryCount < MAX_RETRY_ATTEMPTS && !session.isCancelled()) {
-            try {
-                // Get file metadata
-                Optional<FileInfo> fileInfoOpt = metadataService.findById(request.fileId);
-                if (fileInfoOpt.isEmpty()) {
-                    session.setError("File not found");
-                    return;
+        updateStatus(flight, DownloadStatus.STARTING);
+        return executeDownload(request, flight, 1).handle((content, failure) -> {
+            // Always hand the result to every attached session
+            String error = "Download failed";
+            if (failure != null) {
+                Throwable cause = unwrap(failure);
+                if (cause instanceof DownloadFailure) {
+                    error = cause.getMessage();
+                } else {
+                    System.err.println("❌ Download pipeline failed for " + request.sessionId + ": " + cause);
                 }
-                
-                FileInfo fileInfo = fileInfoOpt.get();
-                session.setFileInfo(fileInfo);
-                session.setStatus(DownloadStatus.DOWNLOADING);
-                
-                // Download file content from Cloudinary
-                byte[] fileContent = downloadFromCloudinary(fileInfo.getSecureUrl(), session);
-                
-                if (fileContent != null && !session.isCancelled()) {
-                    session.setFileContent(fileContent);
-                    session.setStatus(DownloadStatus.COMPLETED);
-                    totalBytesDownloaded.addAndGet(fileContent.length);
-                    
-                    System.out.println("✅ Download completed: " + request.sessionId + 
-                                     " (" + formatBytes(fileContent.length) + ")");
+            }
+            finish(flight, content, error);
+            return null;
+        });
+    }
+    
+    /**
+     * Fetches the flight's file, from the content cache if possible. Failed
+     * attempts are retried after a growing delay without holding a thread.
+     *
+     * @return a future of the content, or of {@code null} if every session was
+     *         cancelled; fails with {@link DownloadFailure} if the file could not
+     *         be fetched
+     */
+    private CompletableFuture<SharedContent> executeDownload(DownloadRequest request, Flight flight, int attempt) {
+        if (flight.isAbandoned()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> lookupFile(request, flight), downloadExecutor)
+            .thenCompose(fileInfo -> {
+                String cacheKey = fileInfo.getStorageKey() != null ? fileInfo.getStorageKey() : fileInfo.getSecureUrl();
+                SharedContent cached = serveFromCache(cacheKey);
+                if (cached != null) {
+                    System.out.println("✅ Download served from cache: " + request.sessionId +
+                                     " (" + formatBytes(cached.length) + ")");
+                    return CompletableFuture.completedFuture(cached);
                 }
-                return;
                 
-            } catch (Exception e) {
-                retryCount++;
-                System.err.println("❌ Download attempt " + retryCount + " failed for " + 
-                                 request.sessionId + ": " + e.getMessage());
+                updateStatus(flight, DownloadStatus.DOWNLOADING);
                 
-                if (retryCount < MAX_RETRY_ATTEMPTS) {
-                    try {
-                        Thread.sleep(1000 * retryCount); // Exponential backoff
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        return;
+                // Download file content from Cloudinary into the spool
+                return downloadFromCloudinary(fileInfo.getSecureUrl(), flight).thenApply(content -> {
+                    if (content == null) {
+                        return null;
                     }
-                } else {
-                    session.setError("Download failed after " + MAX_RETRY_ATTEMPTS + " attempts: " + e.getMessage());
+                    System.out.println("✅ Download completed: " + request.sessionId + 
+                                     " (" + formatBytes(content.length) + ", " + flight.sessions.size() + " session(s))");
+                    return moveIntoCache(cacheKey, content);
+                });
+            })
+            .exceptionallyCompose(failure -> {
+                Throwable cause = unwrap(failure);
+                if (cause instanceof DownloadFailure) {
+                    return CompletableFuture.failedFuture(cause);
+                }
+                if (cause instanceof DownloadSpool.SpoolFullException) {
+                    // Retrying will not free disk space; fail fast
+                    System.err.println("❌ Download rejected for " + request.sessionId + ": " + cause.getMessage());
+                    return CompletableFuture.failedFuture(new DownloadFailure(cause.getMessage()));
                 }
+                System.err.println("❌ Download attempt " + attempt + " failed for " + 
+                                 request.sessionId + ": " + cause.getMessage());
+                if (attempt >= MAX_RETRY_ATTEMPTS) {
+                    return CompletableFuture.failedFuture(new DownloadFailure(
+                            "Download failed after " + MAX_RETRY_ATTEMPTS + " attempts: " + cause.getMessage()));
+                }
+                // Linear backoff
+                Executor delayed = CompletableFuture.delayedExecutor(1000L * attempt, TimeUnit.MILLISECONDS, downloadExecutor);
+                return CompletableFuture.supplyAsync(() -> attempt + 1, delayed)
+                        .thenCompose(next -> executeDownload(request, flight, next));
+            });
+    }
+    
+    /**
+     * Loads the file's metadata and shares it with the flight's sessions.
+     */
+    private FileInfo lookupFile(DownloadRequest request, Flight flight) {
+        Optional<FileInfo> fileInfoOpt;
+        try {
+            fileInfoOpt = metadataService.findById(request.fileId);
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        if (fileInfoOpt.isEmpty()) {
+            throw new CompletionException(new DownloadFailure("File not found"));
+        }
+        
+        FileInfo fileInfo = fileInfoOpt.get();
+        synchronized (flight) {
+            flight.fileInfo = fileInfo;
+            for (DownloadSession session : flight.sessions) {
+                session.setFileInfo(fileInfo);
             }
         }
+        return fileInfo;
     }
     
-    private byte[] downloadFromCloudinary(String url, DownloadSession session) throws IOException {
+    /**
+     * Streams the file into a new spool file shared by the flight's sessions.
+     *
+     * @return a future of the spooled content, or of {@code null} if every session
+     *         was cancelled
+     */
+    private CompletableFuture<SharedContent> downloadFromCloudinary(String url, Flight flight) {
         if (url == null) {
-            throw new IOException("Download URL is null");
+            return CompletableFuture.failedFuture(new IOException("Download URL is null"));
         }
         
-        HttpURLConnection connection = (HttpURLConnection) URI.create(url).toURL().openConnection();
-        connection.setConnectTimeout(30000); // 30 seconds
-        connection.setReadTimeout(DOWNLOAD_TIMEOUT_SECONDS * 1000);
-        connection.setRequestProperty("User-Agent", "UniShare-DownloadManager/1.0");
-        
+        HttpRequest request = OutboundHttpClient.shared().newRequest(URI.create(url)).GET().build();
+        return OutboundHttpClient.shared()
+            .sendAsync(request, info -> info.statusCode() == 200
+                    ? new SpoolSubscriber(flight, info.headers().firstValueAsLong("Content-Length").orElse(-1L))
+                    : HttpResponse.BodySubscribers.replacing(null))
+            .thenApply(response -> {
+                if (response.statusCode() != 200) {
+                    throw new CompletionException(new IOException("HTTP " + response.statusCode() + " fetching " + flight.fileId));
+                }
+                return response.body();
+            });
+    }
+    
+    private static Throwable unwrap(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+    
+    /**
+     * Returns the cached content for {@code cacheKey}, or {@code null} on a miss.
+     */
+    private SharedContent serveFromCache(String cacheKey) {
+        if (contentCache == null || cacheKey == null) {
+            return null;
+        }
+        ContentCache.Lease lease = contentCache.acquire(cacheKey);
+        if (lease == null) {
+            return null;
+        }
+        return new SharedContent(lease.getFile(), lease.getSize(), lease);
+    }
+    
+    /**
+     * Hands spooled content over to the content cache. Returns the cached copy, or
+     * the spooled content unchanged if it could not be cached.
+     */
+    private SharedContent moveIntoCache(String cacheKey, SharedContent content) {
+        if (contentCache == null || cacheKey == null) {
+            return content;
+        }
         try {
-            int responseCode = connection.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                throw new IOException("HTTP " + responseCode + ": " + connection.getResponseMessage());
-            }
-            
-            long contentLength = connection.getContentLengthLong();
-            if (contentLength > 0) {
-                session.setTotalBytes(contentLength);
+            ContentCache.Lease lease = contentCache.adopt(cacheKey, content.file, content.length);
+            if (lease != null) {
+                spool.forget(content.length);
+                // The spooled copy now belongs to the cache; count the lease instead
+                retainedBytes.addAndGet(-content.length);
+                return new SharedContent(lease.getFile(), lease.getSize(), lease);
             }
-            
-            try (InputStream inputStream = new BufferedInputStream(connection.getInputStream());
-                 ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                long totalRead = 0;
-                
-                while ((bytesRead = inputStream.read(buffer)) != -1 && !session.isCancelled()) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    totalRead += bytesRead;
-                    session.setBytesDownloaded(totalRead);
-                    
-                    // Update progress
-                    if (contentLength > 0) {
-                        session.setProgress((int) ((totalRead * 100) / contentLength));
-                    }
-                }
-                
-                if (session.isCancelled()) {
-                    return null;
+        } catch (IOException e) {
+            // Keep serving from the spool file
+            System.err.println("⚠️ Failed to cache download of file " + content.file + ": " + e.getMessage());
+        }
+        return content;
+    }
+    
+    /**
+     * Closes the flight to new sessions and completes or fails every session still
+     * attached to it. Each completed session holds its own reference to the content.
+     */
+    private void finish(Flight flight, SharedContent content, String error) {
+        List<DownloadSession> owners = flight.close();
+        flights.remove(flight.fileId, flight);
+        
+        for (DownloadSession session : owners) {
+            if (content != null) {
+                content.retain();
+                if (session.attachContent(content)) {
+                    session.setTotalBytes(content.length);
+                    session.setBytesDownloaded(content.length);
+                    session.setProgress(100);
+                    session.setStatus(DownloadStatus.COMPLETED);
+                } else {
+                    content.release();
                 }
-                
-                return outputStream.toByteArray();
+            } else if (!session.isCancelled()) {
+                session.setError(error);
+                activeSessions.remove(session.getSessionId());
+            }
+            publish(session);
+        }
+        
+        if (content != null) {
+            // Drop the flight's own reference
+            content.release();
+        }
+    }
+    
+    private void updateStatus(Flight flight, DownloadStatus status) {
+        // Under the flight lock so a session joining concurrently sees either the old
+        // status and gets updated here, or the new one
+        synchronized (flight) {
+            flight.setStatus(status);
+            for (DownloadSession session : flight.sessions) {
+                session.setStatus(status);
+                publish(session);
+            }
+        }
+    }
+    
+    private void updateQueuePosition(Flight flight, int position) {
+        synchronized (flight) {
+            flight.queuePosition = position;
+            for (DownloadSession session : flight.sessions) {
+                session.setQueuePosition(position);
+                publish(session);
             }
-        } finally {
-            connection.disconnect();
         }
     }
     
-    private long getCurrentBandwidthUsage() {
-        long currentTime = System.currentTimeMillis();
-        long timeElapsed = currentTime - lastResetTime;
-        if (timeElapsed > 0) {
-            return (totalBytesDownloaded.get() * 1000) / timeElapsed; // bytes per second
+    private void updateProgress(Flight flight, long bytesDownloaded, long totalBytes) {
+        int progress = totalBytes > 0 ? (int) ((bytesDownloaded * 100) / totalBytes) : 0;
+        for (DownloadSession session : flight.sessions) {
+            if (totalBytes > 0) {
+                session.setTotalBytes(totalBytes);
+                session.setProgress(progress);
+            }
+            session.setBytesDownloaded(bytesDownloaded);
+            publish(session);
         }
-        return 0;
     }
     
-    private void resetBandwidthCounter() {
-        totalBytesDownloaded.set(0);
-        lastResetTime = System.currentTimeMillis();
+    /**
+     * Drops the session's reference to its content. The last reference returns a
+     * cache lease or deletes the spool file.
+     */
+    private void releaseContent(DownloadSession session) {
+        SharedContent content;
+        synchronized (session) {
+            content = session.content;
+            session.content = null;
+        }
+        if (content != null) {
+            content.release();
+        }
+    }
+    
+    /**
+     * Notifies listeners that a session changed. Called for every buffer written,
+     * so listeners must be cheap and do their own rate limiting.
+     */
+    private void publish(DownloadSession session) {
+        for (Listener listener : listeners) {
+            try {
+                listener.sessionUpdated(session);
+            } catch (RuntimeException e) {
+                System.err.println("⚠️ Download listener failed for " + session.getSessionId() + ": " + e.getMessage());
+            }
+        }
     }
     
     private String formatBytes(long bytes) {
@@ -282,6 +567,7 @@ public class DownloadManager {
     
     public void shutdown() {
         System.out.println("🔄 Shutting down DownloadManager...");
+        pacer.shutdownNow();
         downloadExecutor.shutdown();
         try {
             if (!downloadExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
@@ -298,7 +584,18 @@ public class DownloadManager {
      * Remove a download session once the caller has consumed its data.
      */
     public void clearSession(String sessionId) {
-        activeSessions.remove(sessionId);
+        DownloadSession session = activeSessions.remove(sessionId);
+        if (session != null) {
+            releaseContent(session);
+        }
+    }
+    
+    /**
+     * Receives download session updates: status changes, and progress while bytes
+     * are being written.
+     */
+    public interface Listener {
+        void sessionUpdated(DownloadSession session);
     }
     
     // Inner classes for data structures
@@ -308,6 +605,7 @@ public class DownloadManager {
         final UUID fileId;
         final String userEmail;
         final long timestamp;
+        Flight flight;
         
         public DownloadRequest(String sessionId, UUID fileId, String userEmail, long timestamp) {
             this.sessionId = sessionId;
@@ -323,11 +621,15 @@ public class DownloadManager {
         private volatile String errorMessage;
         private volatile boolean cancelled = false;
         private volatile FileInfo fileInfo;
-        private volatile byte[] fileContent;
+        // Guarded by the session monitor
+        private SharedContent content;
+        private volatile Flight flight;
         private volatile long bytesDownloaded = 0;
         private volatile long totalBytes = 0;
         private volatile int progress = 0;
+        private volatile int queuePosition = 0;
         private final long startTime = System.currentTimeMillis();
+        private volatile long lastActivity = startTime;
         
         public DownloadSession(String sessionId, DownloadStatus status) {
             this.sessionId = sessionId;
@@ -337,32 +639,435 @@ public class DownloadManager {
         // Getters and setters
         public String getSessionId() { return sessionId; }
         public DownloadStatus getStatus() { return status; }
-        public void setStatus(DownloadStatus status) { this.status = status; }
+        public void setStatus(DownloadStatus status) {
+            this.status = status;
+            touch();
+        }
         public String getErrorMessage() { return errorMessage; }
         public void setError(String error) { 
             this.errorMessage = error; 
             this.status = DownloadStatus.FAILED;
+            touch();
         }
         public boolean isCancelled() { return cancelled; }
         public void cancel() { 
             this.cancelled = true; 
             this.status = DownloadStatus.CANCELLED;
+            touch();
         }
         public FileInfo getFileInfo() { return fileInfo; }
         public void setFileInfo(FileInfo fileInfo) { this.fileInfo = fileInfo; }
-        public byte[] getFileContent() { return fileContent; }
-        public void setFileContent(byte[] content) { this.fileContent = content; }
+        public synchronized Path getContentFile() { return content != null ? content.file : null; }
+        public synchronized long getContentLength() { return content != null ? content.length : 0; }
+        /**
+         * Holds the content until the returned handle is closed, so clearing the
+         * session meanwhile cannot delete the spool file or return the cache lease
+         * under a reader. Returns {@code null} if the session has no content.
+         */
+        public synchronized ContentHandle openContent() {
+            if (content == null) {
+                return null;
+            }
+            content.retain();
+            return new ContentHandle(content);
+        }
+        synchronized boolean attachContent(SharedContent content) {
+            if (cancelled) {
+                return false;
+            }
+            this.content = content;
+            return true;
+        }
         public long getBytesDownloaded() { return bytesDownloaded; }
         public void setBytesDownloaded(long bytes) { this.bytesDownloaded = bytes; }
         public long getTotalBytes() { return totalBytes; }
         public void setTotalBytes(long bytes) { this.totalBytes = bytes; }
         public int getProgress() { return progress; }
         public void setProgress(int progress) { this.progress = progress; }
+        public int getQueuePosition() { return status == DownloadStatus.QUEUED ? queuePosition : 0; }
+        public void setQueuePosition(int position) { this.queuePosition = position; }
         public long getElapsedTime() { return System.currentTimeMillis() - startTime; }
+        /** Smoothed transfer rate in bytes per second while downloading, else 0. */
+        public long getThroughput() {
+            Flight current = flight;
+            return status == DownloadStatus.DOWNLOADING && current != null ? current.rate.getRate() : 0;
+        }
+        /** Estimated seconds until the download completes; -1 if unknown. */
+        public long getEtaSeconds() {
+            DownloadStatus current = status;
+            if (current == DownloadStatus.COMPLETED) {
+                return 0;
+            }
+            Flight owner = flight;
+            if (current != DownloadStatus.DOWNLOADING || owner == null || totalBytes <= 0) {
+                return -1;
+            }
+            return owner.rate.estimateSeconds(totalBytes - bytesDownloaded);
+        }
+        /** Records client activity; finished sessions idle past the TTL are reaped. */
+        public void touch() { this.lastActivity = System.currentTimeMillis(); }
+        public long getIdleMillis() { return System.currentTimeMillis() - lastActivity; }
+        
+        public String toJson() {
+            String error = errorMessage;
+            return new StringBuilder(192)
+                .append("{\"sessionId\":\"").append(sessionId)
+                .append("\",\"status\":\"").append(status.toString().toLowerCase())
+                .append("\",\"progress\":").append(progress)
+                .append(",\"bytesDownloaded\":").append(bytesDownloaded)
+                .append(",\"totalBytes\":").append(totalBytes)
+                .append(",\"queuePosition\":").append(getQueuePosition())
+                .append(",\"elapsedTime\":").append(getElapsedTime())
+                .append(",\"throughput\":").append(getThroughput())
+                .append(",\"etaSeconds\":").append(getEtaSeconds())
+                .append(",\"error\":\"").append(error != null ? JsonUtils.escape(error) : "")
+                .append("\"}")
+                .toString();
+        }
+    }
+    
+    /**
+     * One fetch of a file, shared by every session that requested the file while
+     * the fetch was queued or running. Each session keeps its own status and
+     * progress; the fetch stops once every session has been cancelled.
+     */
+    private static final class Flight {
+        final UUID fileId;
+        // User the fetch is scheduled and shaped under: whoever requested it first
+        final String user;
+        final List<DownloadSession> sessions = new CopyOnWriteArrayList<>();
+        volatile FairDownloadScheduler.Ticket ticket;
+        // Updated only by the thread streaming the fetch
+        final ThroughputMeter.Ewma rate = new ThroughputMeter.Ewma();
+        // Guarded by "this"
+        FileInfo fileInfo;
+        private DownloadStatus status = DownloadStatus.QUEUED;
+        private int queuePosition;
+        private boolean closed;
+        
+        Flight(UUID fileId, String user) {
+            this.fileId = fileId;
+            this.user = user;
+        }
+        
+        /**
+         * Adds a session and brings its view up to date, unless the flight is
+         * finishing or every session left it.
+         */
+        synchronized boolean attach(DownloadSession session) {
+            if (closed) {
+                return false;
+            }
+            if (!sessions.isEmpty()) {
+                DownloadSession peer = sessions.get(0);
+                session.setStatus(status);
+                session.setFileInfo(fileInfo);
+                session.setTotalBytes(peer.getTotalBytes());
+                session.setBytesDownloaded(peer.getBytesDownloaded());
+                session.setProgress(peer.getProgress());
+            }
+            session.setQueuePosition(queuePosition);
+            session.flight = this;
+            sessions.add(session);
+            return true;
+        }
+        
+        /**
+         * Removes a session. Returns true, closing the flight, if it was the last one.
+         */
+        synchronized boolean detach(DownloadSession session) {
+            sessions.remove(session);
+            if (sessions.isEmpty()) {
+                // Nobody is left to receive the result
+                closed = true;
+                return true;
+            }
+            return false;
+        }
+        
+        /**
+         * Called when the flight is dispatched. Returns false, closing it, if every
+         * session was cancelled while it was queued.
+         */
+        synchronized boolean start() {
+            if (closed || sessions.isEmpty()) {
+                closed = true;
+                return false;
+            }
+            return true;
+        }
+        
+        boolean isAbandoned() {
+            return sessions.isEmpty();
+        }
+        
+        synchronized void setStatus(DownloadStatus status) {
+            this.status = status;
+        }
+        
+        /**
+         * Stops further sessions from joining and returns those attached.
+         */
+        synchronized List<DownloadSession> close() {
+            closed = true;
+            return new ArrayList<>(sessions);
+        }
+    }
+    
+    /**
+     * Writes a response body into a new spool file. Buffers are requested one at a
+     * time, so a slow disk or a bandwidth limit holds back the connection instead
+     * of queueing data in memory; limits are honoured by scheduling the next
+     * request rather than sleeping. Cancels the transfer once every session has
+     * left the flight or the body stalls.
+     */
+    private final class SpoolSubscriber implements HttpResponse.BodySubscriber<SharedContent> {
+        private final Flight flight;
+        private final long contentLength;
+        private final String shapingKey;
+        private final CompletableFuture<SharedContent> result = new CompletableFuture<>();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private Flow.Subscription subscription;
+        private Path spoolFile;
+        private DownloadSpool.SpoolOutputStream spoolOut;
+        private WritableByteChannel channel;
+        private ScheduledFuture<?> watchdog;
+        private long totalRead;
+        private volatile long lastProgress = System.currentTimeMillis();
+        
+        SpoolSubscriber(Flight flight, long contentLength) {
+            this.flight = flight;
+            this.contentLength = contentLength;
+            // One fetch serves every session coalesced onto the flight, so it is charged
+            // once, to the user who started it. Each session's own user and session
+            // buckets are charged when /api/download-file serves it the spooled bytes.
+            this.shapingKey = "fetch-" + flight.fileId;
+        }
+        
+        @Override
+        public CompletionStage<SharedContent> getBody() {
+            return result;
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            try {
+                spoolFile = spool.create(flight.fileId.toString());
+                spoolOut = spool.openBudgeted(spoolFile, Math.max(contentLength, 0));
+                channel = Channels.newChannel(spoolOut);
+            } catch (IOException e) {
+                subscription.cancel();
+                fail(e);
+                return;
+            }
+            watchdog = pacer.scheduleWithFixedDelay(this::checkProgress, 1, 1, TimeUnit.SECONDS);
+            subscription.request(1);
+        }
+        
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (done.get()) {
+                return;
+            }
+            if (flight.isAbandoned()) {
+                abandon();
+                return;
+            }
+            int received = 0;
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    received += buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                fail(e);
+                return;
+            }
+            totalRead += received;
+            throughput.record(received);
+            flight.rate.record(received);
+            updateProgress(flight, totalRead, contentLength);
+            
+            long wait = shaper != null ? shaper.reserve(flight.user, shapingKey, received) : 0;
+            // Time spent waiting for tokens is not a stall
+            lastProgress = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(wait);
+            if (wait > 0) {
+                pacer.schedule(() -> subscription.request(1), wait, TimeUnit.NANOSECONDS);
+            } else {
+                subscription.request(1);
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+        
+        @Override
+        public void onComplete() {
+            if (flight.isAbandoned()) {
+                abandon();
+                return;
+            }
+            try {
+                spoolOut.close();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            if (release()) {
+                result.complete(new SharedContent(spoolFile, spoolOut.getCharged(), null));
+            }
+        }
+        
+        /**
+         * Runs on the pacer: stops transfers nobody is waiting for or that stalled.
+         */
+        private void checkProgress() {
+            if (done.get()) {
+                return;
+            }
+            if (flight.isAbandoned()) {
+                subscription.cancel();
+                abandon();
+            } else if (System.currentTimeMillis() - lastProgress > STALL_TIMEOUT_MILLIS) {
+                subscription.cancel();
+                fail(new IOException("No data received for " + STALL_TIMEOUT_MILLIS / 1000 + " s"));
+            }
+        }
+        
+        private void abandon() {
+            subscription.cancel();
+            if (release()) {
+                discard();
+                result.complete(null);
+            }
+        }
+        
+        private void fail(Throwable failure) {
+            if (release()) {
+                discard();
+                result.completeExceptionally(failure);
+            }
+        }
+        
+        /**
+         * Marks the transfer finished and frees its pacing state. Returns false if
+         * it already was.
+         */
+        private boolean release() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            if (shaper != null) {
+                shaper.forget(shapingKey);
+            }
+            return true;
+        }
+        
+        private void discard() {
+            if (spoolOut != null) {
+                try {
+                    spoolOut.close();
+                } catch (IOException e) {
+                    // Deleting the file below is all that matters
+                }
+            }
+            spool.delete(spoolFile, spoolOut != null ? spoolOut.getCharged() : 0);
+        }
+    }
+    
+    /**
+     * A reference to a session's content taken by {@link DownloadSession#openContent()}.
+     */
+    public static final class ContentHandle implements AutoCloseable {
+        private final SharedContent content;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        private ContentHandle(SharedContent content) {
+            this.content = content;
+        }
+        
+        public Path getFile() { return content.file; }
+        public long getLength() { return content.length; }
+        
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                content.release();
+            }
+        }
+    }
+    
+    /**
+     * Downloaded content shared by the sessions of one flight: a cache lease, or a
+     * spool file if the content was not cached. The last reference releases it.
+     */
+    private final class SharedContent {
+        final Path file;
+        final long length;
+        private final ContentCache.Lease lease;
+        // Guarded by "this"; starts with the flight's own reference
+        private int references = 1;
+        
+        SharedContent(Path file, long length, ContentCache.Lease lease) {
+            this.file = file;
+            this.length = length;
+            this.lease = lease;
+            retainedBytes.addAndGet(length);
+        }
+        
+        synchronized void retain() {
+            references++;
+        }
+        
+        void release() {
+            synchronized (this) {
+                if (--references > 0) {
+                    return;
+                }
+            }
+            retainedBytes.addAndGet(-length);
+            if (lease != null) {
+                lease.release();
+            } else {
+                spool.delete(file, length);
+            }
+        }
+    }
+    
+    /**
+     * Thrown when a download cannot be accepted because finished downloads pin too
+     * much content.
+     */
+    public static class CapacityExceededException extends RuntimeException {
+        public CapacityExceededException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * A download that failed for good; the message is reported to every session.
+     */
+    private static final class DownloadFailure extends Exception {
+        DownloadFailure(String message) {
+            super(message);
+        }
     }
     
     public enum DownloadStatus {
-        QUEUED, STARTING, DOWNLOADING, COMPLETED, FAILED, CANCELLED
+        QUEUED, STARTING, DOWNLOADING, COMPLETED, FAILED, CANCELLED;
+        
+        public boolean isTerminal() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
     }
     
     public static class DownloadStats {
@@ -370,18 +1075,83 @@ public class DownloadManager {
         final int queuedDownloads;
         final int availableSlots;
         final long bandwidthUsage;
+        final long spoolBytes;
+        final long spoolBudgetBytes;
+        final ContentCache.Stats contentCache;
+        final int inFlightFetches;
+        final long coalescedRequests;
+        final BandwidthShaper.Stats shaping;
+        final RetentionStats retention;
+        final ThroughputMeter.Snapshot throughput;
+        final List<TransferStats> transfers;
         
-        public DownloadStats(int active, int queued, int available, long bandwidth) {
+        public DownloadStats(int active, int queued, int available, long bandwidth, long spoolBytes, long spoolBudgetBytes,
+                             ContentCache.Stats contentCache, int inFlightFetches, long coalescedRequests,
+                             BandwidthShaper.Stats shaping, RetentionStats retention,
+                             ThroughputMeter.Snapshot throughput, List<TransferStats> transfers) {
             this.activeDownloads = active;
             this.queuedDownloads = queued;
             this.availableSlots = available;
             this.bandwidthUsage = bandwidth;
+            this.spoolBytes = spoolBytes;
+            this.spoolBudgetBytes = spoolBudgetBytes;
+            this.contentCache = contentCache;
+            this.inFlightFetches = inFlightFetches;
+            this.coalescedRequests = coalescedRequests;
+            this.shaping = shaping;
+            this.retention = retention;
+            this.throughput = throughput;
+            this.transfers = transfers;
+        }
+        
+        public String toJson() {
+            StringBuilder transfersJson = new StringBuilder("[");
+            for (TransferStats transfer : transfers) {
+                if (transfersJson.length() > 1) {
+                    transfersJson.append(",");
+                }
+                transfersJson.append(transfer.toJson());
+            }
+            transfersJson.append("]");
+            return String.format(
+                "{\"activeDownloads\":%d,\"queuedDownloads\":%d,\"availableSlots\":%d,\"bandwidthUsage\":%d," +
+                "\"spoolBytes\":%d,\"spoolBudgetBytes\":%d,\"contentCache\":%s," +
+                "\"inFlightFetches\":%d,\"coalescedRequests\":%d,\"shaping\":%s,\"retention\":%s," +
+                "\"throughput\":%s,\"transfers\":%s}",
+                activeDownloads, queuedDownloads, availableSlots, bandwidthUsage, spoolBytes, spoolBudgetBytes,
+                contentCache != null ? contentCache.toJson() : "null", inFlightFetches, coalescedRequests,
+                shaping != null ? shaping.toJson() : "null", retention.toJson(), throughput.toJson(), transfersJson
+            );
         }
+    }
+    
+    /**
+     * One origin fetch in progress: its smoothed rate (bytes per second) and
+     * estimated seconds to completion, -1 if unknown.
+     */
+    public record TransferStats(UUID fileId, int sessions, long bytesDownloaded, long totalBytes,
+                                long throughput, long etaSeconds) {
+        
+        public String toJson() {
+            return String.format(
+                "{\"fileId\":\"%s\",\"sessions\":%d,\"bytesDownloaded\":%d,\"totalBytes\":%d," +
+                "\"throughput\":%d,\"etaSeconds\":%d}",
+                fileId, sessions, bytesDownloaded, totalBytes, throughput, etaSeconds
+            );
+        }
+    }
+    
+    /**
+     * Content pinned by sessions and what the session reaper has reclaimed.
+     */
+    public record RetentionStats(long retainedBytes, long budgetBytes, long sessionTtlMillis,
+                                 long reapedSessions, long reclaimedBytes, long rejectedSessions) {
         
         public String toJson() {
             return String.format(
-                "{\"activeDownloads\":%d,\"queuedDownloads\":%d,\"availableSlots\":%d,\"bandwidthUsage\":%d}",
-                activeDownloads, queuedDownloads, availableSlots, bandwidthUsage
+                "{\"retainedBytes\":%d,\"budgetBytes\":%d,\"sessionTtlMillis\":%d,\"reapedSessions\":%d," +
+                "\"reclaimedBytes\":%d,\"rejectedSessions\":%d}",
+                retainedBytes, budgetBytes, sessionTtlMillis, reapedSessions, reclaimedBytes, rejectedSessions
             );
         }
     }
@@ -0,0 +1,195 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Managed spool directory for completed download sessions.
+ * <p>
+ * Downloaded content is written to one temp file per session instead of being
+ * held on the heap. All spool files share a global disk budget; a write that would
+ * exceed it fails with {@link SpoolFullException}. Files left over from a previous
+ * run are removed at startup.
+ */
+public class DownloadSpool {
+
+    private static final String SPOOL_DIR_ENV = "UNISHARE_DOWNLOAD_SPOOL_DIR";
+    private static final String SPOOL_BUDGET_ENV = "UNISHARE_DOWNLOAD_SPOOL_MAX_MB";
+    private static final int DEFAULT_BUDGET_MB = 1024;
+
+    private final Path directory;
+    private final long budgetBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong rejectedWrites = new AtomicLong();
+
+    public DownloadSpool() throws IOException {
+        this(resolveDirectory(), ServerConfig.readPositiveInt(SPOOL_BUDGET_ENV, DEFAULT_BUDGET_MB) * 1024L * 1024L);
+    }
+
+    public DownloadSpool(Path directory, long budgetBytes) throws IOException {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        Files.createDirectories(directory);
+        purgeLeftovers();
+        System.out.println("✅ Download spool at " + directory + " with a "
+                + (budgetBytes / (1024 * 1024)) + " MB budget");
+    }
+
+    /**
+     * Creates an empty spool file for a session.
+     */
+    public Path create(String sessionId) throws IOException {
+        return Files.createTempFile(directory, "dl-" + sessionId + "-", ".part");
+    }
+
+    /**
+     * Opens a stream that writes to {@code file} and charges every byte against the
+     * spool budget. Charged bytes stay reserved until {@link #delete(Path, long)}.
+     *
+     * @param expectedBytes size announced by the origin, reserved up front so that a
+     *                      download is admitted or rejected as a whole; 0 if unknown
+     * @throws SpoolFullException if {@code expectedBytes} does not fit the budget
+     */
+    public SpoolOutputStream openBudgeted(Path file, long expectedBytes) throws IOException {
+        reserve(expectedBytes);
+        try {
+            return new SpoolOutputStream(Files.newOutputStream(file), expectedBytes);
+        } catch (IOException e) {
+            usedBytes.addAndGet(-expectedBytes);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes a spool file and returns its {@code chargedBytes} to the budget.
+     */
+    public void delete(Path file, long chargedBytes) {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (Files.deleteIfExists(file)) {
+                usedBytes.addAndGet(-chargedBytes);
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Failed to delete spool file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns {@code chargedBytes} to the budget for a file that was moved out of
+     * the spool rather than deleted.
+     */
+    public void forget(long chargedBytes) {
+        usedBytes.addAndGet(-chargedBytes);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getRejectedWrites() {
+        return rejectedWrites.get();
+    }
+
+    private void reserve(long bytes) throws SpoolFullException {
+        long used;
+        do {
+            used = usedBytes.get();
+            if (used + bytes > budgetBytes) {
+                rejectedWrites.incrementAndGet();
+                throw new SpoolFullException("Download spool is full (" + budgetBytes + " bytes)");
+            }
+        } while (!usedBytes.compareAndSet(used, used + bytes));
+    }
+
+    private void purgeLeftovers() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "dl-*.part")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static Path resolveDirectory() {
+        String configured = System.getenv(SPOOL_DIR_ENV);
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured.trim());
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "unishare-download-spool");
+    }
+
+    /**
+     * Thrown when the spool has no room left for a download.
+     */
+    public static class SpoolFullException extends IOException {
+        public SpoolFullException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Output stream that reserves budget for any bytes beyond the up-front
+     * reservation. Unused reservation is returned on close.
+     */
+    public final class SpoolOutputStream extends FilterOutputStream {
+        private long charged;
+        private long written;
+        private boolean closed;
+
+        SpoolOutputStream(OutputStream out, long reserved) {
+            super(out);
+            this.charged = reserved;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            charge(1);
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            charge(len);
+            out.write(b, off, len);
+            written += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                usedBytes.addAndGet(-(charged - written));
+                charged = written;
+            }
+            super.close();
+        }
+
+        private void charge(int len) throws SpoolFullException {
+            long needed = written + len - charged;
+            if (needed > 0) {
+                reserve(needed);
+                charged += needed;
+            }
+        }
+
+        /**
+         * Bytes reserved so far; pass to {@link DownloadSpool#delete(Path, long)}.
+         */
+        public long getCharged() {
+            return charged;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Dispatches download tasks with per-user fairness.
+ * <p>
+ * Every user has their own FIFO sub-queue. Users with queued work are served in
+ * weighted round-robin: a user may start up to their weight of tasks (default 1,
+ * see {@code UNISHARE_DOWNLOAD_USER_WEIGHTS}) before the next user's turn. No user
+ * runs more than {@code UNISHARE_DOWNLOAD_PER_USER_LIMIT} tasks at once, so one
+ * user queueing many files cannot take every slot. Tasks are only handed to the
+ * executor once a slot is free; nothing waits on a worker thread. A task is
+ * asynchronous: it holds its slot until the stage it returns completes, not while
+ * a thread runs it.
+ */
+public class FairDownloadScheduler {
+
+    private static final String PER_USER_LIMIT_ENV = "UNISHARE_DOWNLOAD_PER_USER_LIMIT";
+    private static final String USER_WEIGHTS_ENV = "UNISHARE_DOWNLOAD_USER_WEIGHTS";
+    private static final int DEFAULT_PER_USER_LIMIT = 3;
+
+    private final Executor executor;
+    private final int maxConcurrent;
+    private final int perUserLimit;
+    private final Map<String, Integer> weights;
+
+    // All state below is guarded by "this"
+    private final Map<String, UserQueue> users = new HashMap<>();
+    // Users with queued tasks, in round-robin order; the head is the user being served
+    private final ArrayDeque<UserQueue> ring = new ArrayDeque<>();
+    private int running;
+    private int queued;
+
+    public FairDownloadScheduler(Executor executor, int maxConcurrent) {
+        this(executor, maxConcurrent,
+                ServerConfig.readPositiveInt(PER_USER_LIMIT_ENV, DEFAULT_PER_USER_LIMIT),
+                parseWeights(System.getenv(USER_WEIGHTS_ENV)));
+    }
+
+    public FairDownloadScheduler(Executor executor, int maxConcurrent, int perUserLimit, Map<String, Integer> weights) {
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.perUserLimit = Math.min(perUserLimit, maxConcurrent);
+        this.weights = weights;
+        System.out.println("✅ Download scheduler: " + maxConcurrent + " slots, at most "
+                + this.perUserLimit + " per user");
+    }
+
+    /**
+     * Queues a task for {@code user}. The task is started on the executor and keeps
+     * its slot until the stage it returns completes.
+     *
+     * @param onPositionChange called with the ticket's new 1-based queue position
+     *                         whenever it changes, and with 0 when the task starts
+     */
+    public Ticket submit(String user, Supplier<? extends CompletionStage<?>> task, IntConsumer onPositionChange) {
+        Ticket ticket = new Ticket(user, task, onPositionChange);
+        List<Ticket> changed;
+        List<Ticket> toStart;
+        synchronized (this) {
+            UserQueue queue = users.computeIfAbsent(user, u -> new UserQueue(u, weights.getOrDefault(u, 1)));
+            if (queue.queued.isEmpty()) {
+                queue.credits = queue.weight;
+                ring.addLast(queue);
+            }
+            queue.queued.addLast(ticket);
+            queued++;
+            toStart = dispatch();
+            changed = renumber();
+        }
+        start(toStart);
+        notifyPositions(changed);
+        return ticket;
+    }
+
+    /**
+     * Removes a ticket that has not started yet.
+     *
+     * @return false if the ticket already started or was removed
+     */
+    public boolean cancel(Ticket ticket) {
+        List<Ticket> changed;
+        synchronized (this) {
+            UserQueue queue = users.get(ticket.user);
+            if (queue == null || !queue.queued.remove(ticket)) {
+                return false;
+            }
+            queued--;
+            if (queue.queued.isEmpty()) {
+                ring.remove(queue);
+                removeIfIdle(queue);
+            }
+            changed = renumber();
+        }
+        notifyPositions(changed);
+        return true;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    public synchronized int getWaitingUsers() {
+        return ring.size();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    private void finished(Ticket ticket) {
+        List<Ticket> changed;
+        List<Ticket> toStart;
+        synchronized (this) {
+            UserQueue queue = users.get(ticket.user);
+            queue.running--;
+            running--;
+            removeIfIdle(queue);
+            toStart = dispatch();
+            changed = toStart.isEmpty() ? Collections.emptyList() : renumber();
+        }
+        start(toStart);
+        notifyPositions(changed);
+    }
+
+    /**
+     * Takes tasks off the user queues while slots are free. Caller holds the lock.
+     */
+    private List<Ticket> dispatch() {
+        List<Ticket> toStart = new ArrayList<>();
+        while (running < maxConcurrent) {
+            UserQueue queue = nextEligible();
+            if (queue == null) {
+                break;
+            }
+            Ticket ticket = queue.queued.pollFirst();
+            queue.running++;
+            running++;
+            queued--;
+            ticket.position = 0;
+            toStart.add(ticket);
+
+            if (queue.queued.isEmpty()) {
+                ring.pollFirst();
+            } else if (--queue.credits == 0) {
+                rotate();
+            }
+        }
+        return toStart;
+    }
+
+    /**
+     * Moves the ring to the first user below the per-user limit, or returns
+     * {@code null} if every waiting user is at the limit.
+     */
+    private UserQueue nextEligible() {
+        for (int i = 0; i < ring.size(); i++) {
+            UserQueue head = ring.peekFirst();
+            if (head.running < perUserLimit) {
+                return head;
+            }
+            rotate();
+        }
+        return null;
+    }
+
+    private void rotate() {
+        UserQueue head = ring.pollFirst();
+        head.credits = head.weight;
+        ring.addLast(head);
+    }
+
+    private void removeIfIdle(UserQueue queue) {
+        if (queue.running == 0 && queue.queued.isEmpty()) {
+            users.remove(queue.user);
+        }
+    }
+
+    /**
+     * Recomputes queue positions by replaying the round-robin order over the
+     * current queues, ignoring per-user limits. Caller holds the lock.
+     *
+     * @return tickets whose position changed
+     */
+    private List<Ticket> renumber() {
+        List<Ticket> changed = new ArrayList<>();
+        ArrayDeque<Turn> turns = new ArrayDeque<>(ring.size());
+        boolean first = true;
+        for (UserQueue queue : ring) {
+            turns.addLast(new Turn(queue.queued.iterator(), first ? queue.credits : queue.weight, queue.weight));
+            first = false;
+        }
+        int position = 0;
+        while (!turns.isEmpty()) {
+            Turn turn = turns.pollFirst();
+            while (turn.credits > 0 && turn.tickets.hasNext()) {
+                Ticket ticket = turn.tickets.next();
+                position++;
+                turn.credits--;
+                if (ticket.position != position) {
+                    ticket.position = position;
+                    changed.add(ticket);
+                }
+            }
+            if (turn.tickets.hasNext()) {
+                turn.credits = turn.weight;
+                turns.addLast(turn);
+            }
+        }
+        return changed;
+    }
+
+    private void start(List<Ticket> tickets) {
+        for (Ticket ticket : tickets) {
+            ticket.onPositionChange.accept(0);
+            executor.execute(() -> {
+                CompletionStage<?> stage;
+                try {
+                    stage = ticket.task.get();
+                } catch (RuntimeException | Error e) {
+                    finished(ticket);
+                    throw e;
+                }
+                stage.whenComplete((result, failure) -> finished(ticket));
+            });
+        }
+    }
+
+    private static void notifyPositions(List<Ticket> tickets) {
+        for (Ticket ticket : tickets) {
+            int position = ticket.position;
+            if (position > 0) {
+                ticket.onPositionChange.accept(position);
+            }
+        }
+    }
+
+    /**
+     * Parses {@code user=weight} pairs separated by commas. Invalid entries are
+     * ignored.
+     */
+    static Map<String, Integer> parseWeights(String value) {
+        Map<String, Integer> parsed = new HashMap<>();
+        if (value == null || value.isBlank()) {
+            return parsed;
+        }
+        for (String pair : value.split(",")) {
+            int eq = pair.lastIndexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            try {
+                int weight = Integer.parseInt(pair.substring(eq + 1).trim());
+                if (weight > 0) {
+                    parsed.put(pair.substring(0, eq).trim(), weight);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("⚠️ Ignoring invalid download weight: " + pair);
+            }
+        }
+        return parsed;
+    }
+
+    private static final class UserQueue {
+        final String user;
+        final int weight;
+        final ArrayDeque<Ticket> queued = new ArrayDeque<>();
+        int running;
+        // Tasks the user may still start in the current round
+        int credits;
+
+        UserQueue(String user, int weight) {
+            this.user = user;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Turn {
+        final Iterator<Ticket> tickets;
+        final int weight;
+        int credits;
+
+        Turn(Iterator<Ticket> tickets, int credits, int weight) {
+            this.tickets = tickets;
+            this.credits = credits;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Handle for a submitted task.
+     */
+    public static final class Ticket {
+        private final String user;
+        private final Supplier<? extends CompletionStage<?>> task;
+        private final IntConsumer onPositionChange;
+        // Written under the scheduler monitor; 0 once started
+        private volatile int position;
+
+        private Ticket(String user, Supplier<? extends CompletionStage<?>> task, IntConsumer onPositionChange) {
+            this.user = user;
+            this.task = task;
+            this.onPositionChange = onPositionChange;
+        }
+
+        public String getUser() {
+            return user;
+        }
+    }
+}
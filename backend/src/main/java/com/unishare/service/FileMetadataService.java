@@ -1,7 +1,10 @@
 package com.unishare.service;
 
+import com.unishare.config.ServerConfig;
 import com.unishare.model.FileInfo;
+import com.unishare.util.TtlCache;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -9,19 +12,53 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Handles persistence of file metadata in the database.
+ * <p>
+ * Lookups by id go through a bounded read-through cache. Unknown ids are cached
+ * too, for a shorter time, so repeated requests for missing files stay off the
+ * database. Writes through this service keep the cache consistent.
  */
 public class FileMetadataService {
 
+    private static final String CACHE_SIZE_ENV = "UNISHARE_METADATA_CACHE_SIZE";
+    private static final String CACHE_TTL_ENV = "UNISHARE_METADATA_CACHE_TTL_MS";
+    private static final String CACHE_NEGATIVE_TTL_ENV = "UNISHARE_METADATA_CACHE_NEGATIVE_TTL_MS";
+
     private final DatabaseService databaseService;
+    private final TtlCache<UUID, Optional<FileInfo>> byIdCache;
+    private final long cacheTtlMillis;
+    private final long negativeCacheTtlMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
 
     public FileMetadataService(DatabaseService databaseService) {
+        this(databaseService,
+                ServerConfig.readPositiveInt(CACHE_SIZE_ENV, 10_000),
+                ServerConfig.readPositiveInt(CACHE_TTL_ENV, 60_000),
+                ServerConfig.readPositiveInt(CACHE_NEGATIVE_TTL_ENV, 5_000));
+    }
+
+    public FileMetadataService(DatabaseService databaseService,
+                               int cacheSize,
+                               long cacheTtlMillis,
+                               long negativeCacheTtlMillis) {
         this.databaseService = databaseService;
+        this.byIdCache = new TtlCache<>(cacheSize);
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+    }
+
+    /**
+     * Registers a listener that is told about every committed insert and delete.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
     }
 
     public FileInfo saveFileMetadata(String module,
@@ -30,13 +67,26 @@ public class FileMetadataService {
                                      String storageKey,
                                      String secureUrl,
                                      long sizeBytes) throws SQLException {
+        return saveFileMetadata(module, uploaderEmail, originalFilename, storageKey, secureUrl, sizeBytes, null);
+    }
+
+    /**
+     * @param contentHash hex SHA-256 of the content, or {@code null} if unknown
+     */
+    public FileInfo saveFileMetadata(String module,
+                                     String uploaderEmail,
+                                     String originalFilename,
+                                     String storageKey,
+                                     String secureUrl,
+                                     long sizeBytes,
+                                     String contentHash) throws SQLException {
         UUID id = UUID.randomUUID();
         Instant now = Instant.now();
 
         try (Connection connection = databaseService.getConnection();
              PreparedStatement statement = connection.prepareStatement(
-                     "INSERT INTO files (id, module, uploader_email, filename, storage_key, secure_url, size_bytes, uploaded_at) " +
-                             "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                     "INSERT INTO files (id, module, uploader_email, filename, storage_key, secure_url, size_bytes, uploaded_at, content_hash) " +
+                             "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
             statement.setObject(1, id);
             statement.setString(2, module);
             statement.setString(3, uploaderEmail);
@@ -45,6 +95,7 @@ public class FileMetadataService {
             statement.setString(6, secureUrl);
             statement.setLong(7, sizeBytes);
             statement.setTimestamp(8, Timestamp.from(now));
+            statement.setString(9, contentHash);
             statement.executeUpdate();
         }
 
@@ -57,17 +108,42 @@ public class FileMetadataService {
         info.setSecureUrl(secureUrl);
         info.setFileSize(sizeBytes);
         info.setUploadInstant(now);
+        byIdCache.put(id, Optional.of(info), cacheTtlMillis);
+        for (Listener listener : listeners) {
+            listener.fileSaved(info);
+        }
         return info;
     }
 
-    public List<FileInfo> getFilesForModule(String module) throws SQLException {
-        List<FileInfo> files = new ArrayList<>();
+    /**
+     * Returns one page of a module's files, newest first.
+     * <p>
+     * Pages are addressed with a keyset cursor over {@code (uploaded_at, id)}, so
+     * each page is a bounded range scan of {@code files_module_uploaded_id_idx}
+     * no matter how deep into the listing it is.
+     *
+     * @param cursor {@code nextCursor} of the previous page, or {@code null} for the first page
+     * @param limit  maximum number of files to return
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public FilePage getFilesForModule(String module, String cursor, int limit) throws SQLException {
+        Cursor position = cursor != null ? Cursor.decode(cursor) : null;
+        List<FileInfo> files = new ArrayList<>(Math.min(limit + 1, 256));
 
+        String sql = "SELECT id, module, uploader_email, filename, storage_key, secure_url, size_bytes, uploaded_at " +
+                "FROM files WHERE module = ? " +
+                (position != null ? "AND (uploaded_at, id) < (?, ?) " : "") +
+                "ORDER BY uploaded_at DESC, id DESC LIMIT ?";
         try (Connection connection = databaseService.getConnection();
-             PreparedStatement statement = connection.prepareStatement(
-                     "SELECT id, module, uploader_email, filename, storage_key, secure_url, size_bytes, uploaded_at " +
-                             "FROM files WHERE module = ? ORDER BY uploaded_at DESC")) {
-            statement.setString(1, module);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            statement.setString(index++, module);
+            if (position != null) {
+                statement.setTimestamp(index++, Timestamp.from(position.uploadedAt));
+                statement.setObject(index++, position.id);
+            }
+            // One extra row tells us whether another page exists.
+            statement.setInt(index, limit + 1);
             try (ResultSet rs = statement.executeQuery()) {
                 while (rs.next()) {
                     files.add(mapRow(rs));
@@ -75,10 +151,27 @@ public class FileMetadataService {
             }
         }
 
-        return files;
+        String nextCursor = null;
+        if (files.size() > limit) {
+            files.remove(files.size() - 1);
+            FileInfo last = files.get(files.size() - 1);
+            nextCursor = new Cursor(last.getUploadInstant(), last.getId()).encode();
+        }
+        return new FilePage(files, nextCursor);
     }
 
     public Optional<FileInfo> findById(UUID id) throws SQLException {
+        Optional<FileInfo> cached = byIdCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = byIdCache.stamp();
+        Optional<FileInfo> loaded = loadById(id);
+        byIdCache.putIfUnchanged(id, loaded, loaded.isPresent() ? cacheTtlMillis : negativeCacheTtlMillis, stamp);
+        return loaded;
+    }
+
+    private Optional<FileInfo> loadById(UUID id) throws SQLException {
         try (Connection connection = databaseService.getConnection();
              PreparedStatement statement = connection.prepareStatement(
                      "SELECT id, module, uploader_email, filename, storage_key, secure_url, size_bytes, uploaded_at " +
@@ -93,15 +186,69 @@ public class FileMetadataService {
         return Optional.empty();
     }
 
+    /**
+     * Finds the stored object of an earlier upload with the same content.
+     */
+    public Optional<StoredObject> findByContentHash(String contentHash, long sizeBytes) throws SQLException {
+        try (Connection connection = databaseService.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT storage_key, secure_url, size_bytes FROM files " +
+                             "WHERE content_hash = ? AND size_bytes = ? LIMIT 1")) {
+            statement.setString(1, contentHash);
+            statement.setLong(2, sizeBytes);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(new StoredObject(
+                            rs.getString("storage_key"), rs.getString("secure_url"), rs.getLong("size_bytes")));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Counts the files stored under {@code storageKey}, leaving out {@code excludeId}
+     * if given.
+     */
+    public int countByStorageKey(String storageKey, UUID excludeId) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM files WHERE storage_key = ?" + (excludeId != null ? " AND id <> ?" : "");
+        try (Connection connection = databaseService.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, storageKey);
+            if (excludeId != null) {
+                statement.setObject(2, excludeId);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
     public void deleteById(UUID id) throws SQLException {
+        String module = null;
         try (Connection connection = databaseService.getConnection();
              PreparedStatement statement = connection.prepareStatement(
-                     "DELETE FROM files WHERE id = ?")) {
+                     "DELETE FROM files WHERE id = ? RETURNING module")) {
             statement.setObject(1, id);
-            statement.executeUpdate();
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    module = rs.getString("module");
+                }
+            }
+        } finally {
+            byIdCache.invalidate(id);
+        }
+        if (module != null) {
+            for (Listener listener : listeners) {
+                listener.fileDeleted(id, module);
+            }
         }
     }
 
+    public TtlCache.Stats getCacheStats() {
+        return byIdCache.getStats();
+    }
+
     public List<String> listModules() throws SQLException {
         List<String> modules = new ArrayList<>();
         try (Connection connection = databaseService.getConnection();
@@ -130,5 +277,57 @@ public class FileMetadataService {
         }
         return info;
     }
-}
 
+    /**
+     * A Cloudinary object that one or more files point at.
+     */
+    public record StoredObject(String storageKey, String secureUrl, long sizeBytes) {
+    }
+
+    /**
+     * One page of a module listing. {@code nextCursor} is {@code null} on the last page.
+     */
+    public record FilePage(List<FileInfo> files, String nextCursor) {
+    }
+
+    /**
+     * Position after the last row of a page, encoded as an opaque URL-safe token.
+     */
+    private static final class Cursor {
+        final Instant uploadedAt;
+        final UUID id;
+
+        Cursor(Instant uploadedAt, UUID id) {
+            this.uploadedAt = uploadedAt;
+            this.id = id;
+        }
+
+        String encode() {
+            String raw = uploadedAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String token) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                return new Cursor(Instant.parse(raw.substring(0, separator)),
+                        UUID.fromString(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
+
+    /**
+     * Receives file metadata changes after they are committed.
+     */
+    public interface Listener {
+        void fileSaved(FileInfo file);
+
+        void fileDeleted(UUID id, String module);
+    }
+}
@@ -1,16 +1,34 @@
 package com.unishare.service;
 
-import com.sun.net.httpserver.HttpExchange;
 import com.unishare.model.FileInfo;
 import com.unishare.util.CloudinaryClient;
+import com.unishare.util.MultipartStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service for handling file operations via Cloudinary with metadata stored in
  * the database.
+ * <p>
+ * Uploads are deduplicated by content: the SHA-256 of each file is computed while
+ * it is spooled, before any upload starts, and a file whose content is already
+ * stored points its row at the existing Cloudinary object instead of uploading it
+ * again. Identical uploads running at the same time share one upload. The object is only
+ * destroyed when the last file referring to it is deleted.
  */
 public class FileService {
 
@@ -18,57 +36,239 @@ public class FileService {
     private static final Set<String> ALLOWED_EXTENSIONS = Set.of(
             "pdf", "doc", "docx", "txt", "png", "jpg", "jpeg", "gif");
 
+    private static final int MAX_PARALLEL_UPLOADS_PER_REQUEST = 3;
+    private static final int STORAGE_KEY_LOCK_STRIPES = 64;
+
     private final CloudinaryClient cloudinaryClient;
     private final FileMetadataService metadataService;
+    private final UploadScheduler uploadScheduler;
+
+    // Uploads running now, by content hash; identical uploads wait for the first
+    private final Map<String, CompletableFuture<FileMetadataService.StoredObject>> uploadsInFlight =
+            new ConcurrentHashMap<>();
+    // Reusing an object and deleting its last reference must not interleave
+    private final ReentrantLock[] storageKeyLocks = new ReentrantLock[STORAGE_KEY_LOCK_STRIPES];
 
     public FileService(FileMetadataService metadataService) {
+        this(metadataService, new UploadScheduler());
+    }
+
+    public FileService(FileMetadataService metadataService, UploadScheduler uploadScheduler) {
         this.cloudinaryClient = CloudinaryClient.getInstance();
         this.metadataService = metadataService;
+        this.uploadScheduler = uploadScheduler;
+        for (int i = 0; i < storageKeyLocks.length; i++) {
+            storageKeyLocks[i] = new ReentrantLock();
+        }
     }
 
-    public List<FileInfo> saveUploadedFiles(HttpExchange exchange,
+    /**
+     * Uploads every remaining file part of the request and returns one outcome per
+     * file, in request order.
+     * <p>
+     * Parts arrive one after another on the request stream, so each part is spooled
+     * to a temporary file (size and extension checks run while it is written) and
+     * its Cloudinary upload starts immediately while the next part is still being
+     * read. At most {@link #MAX_PARALLEL_UPLOADS_PER_REQUEST} uploads of one request
+     * are in flight, and {@link UploadScheduler} caps uploads across all requests.
+     */
+    public List<UploadOutcome> saveUploadedFiles(MultipartStream multipart,
             String module,
-            String uploaderEmail,
-            byte[] requestBody) throws IOException, SQLException {
+            String uploaderEmail) throws IOException {
 
         System.out.println("📤 Received upload request for module: " + module + " by: " + uploaderEmail);
-        System.out.println("📊 Request body size: " + requestBody.length + " bytes");
 
-        List<UploadedFile> parsedFiles = parseMultipartData(requestBody);
-        List<FileInfo> results = new ArrayList<>();
+        List<String> filenames = new ArrayList<>();
+        List<CompletableFuture<FileInfo>> pending = new ArrayList<>();
+        Semaphore requestPermits = new Semaphore(MAX_PARALLEL_UPLOADS_PER_REQUEST);
+
+        try {
+            MultipartStream.Part part;
+            while ((part = multipart.nextPart()) != null) {
+                if (!part.isFile() || part.getFilename().isBlank()) {
+                    continue;
+                }
+                String filename = part.getFilename();
+                if (!isValidFile(filename, 0)) {
+                    System.err.println("❌ Invalid file skipped: " + filename);
+                    filenames.add(filename);
+                    pending.add(CompletableFuture.failedFuture(new InvalidFileException("Unsupported file type")));
+                    continue;
+                }
+
+                Path spool = Files.createTempFile("unishare-upload-", ".part");
+                long size;
+                MessageDigest digest = sha256();
+                try (InputStream in = new DigestInputStream(
+                        new SizeLimitedInputStream(part.getInputStream(), MAX_FILE_SIZE), digest)) {
+                    size = Files.copy(in, spool, StandardCopyOption.REPLACE_EXISTING);
+                } catch (FileTooLargeException e) {
+                    Files.deleteIfExists(spool);
+                    System.err.println("❌ Invalid file skipped: " + filename + " (" + e.getMessage() + ")");
+                    filenames.add(filename);
+                    pending.add(CompletableFuture.failedFuture(new InvalidFileException("File exceeds 10 MB limit")));
+                    continue;
+                } catch (IOException e) {
+                    Files.deleteIfExists(spool);
+                    throw e;
+                }
+                if (size == 0) {
+                    Files.deleteIfExists(spool);
+                    continue;
+                }
+
+                String contentHash = HexFormat.of().formatHex(digest.digest());
+                long spooledSize = size;
 
-        for (UploadedFile uploadedFile : parsedFiles) {
-            if (!isValidFile(uploadedFile.filename, uploadedFile.content.length)) {
-                System.err.println("❌ Invalid file skipped: " + uploadedFile.filename);
-                continue;
+                requestPermits.acquireUninterruptibly();
+                filenames.add(filename);
+                pending.add(uploadScheduler.submit(
+                                () -> storeSpooledFile(spool, spooledSize, contentHash, filename, module, uploaderEmail))
+                        .whenComplete((info, error) -> requestPermits.release()));
+            }
+        } catch (IOException e) {
+            // Request stream broke: let already scheduled uploads finish, then fail
+            for (CompletableFuture<FileInfo> future : pending) {
+                future.exceptionally(error -> null).join();
             }
+            throw e;
+        }
+
+        List<UploadOutcome> outcomes = new ArrayList<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            String filename = filenames.get(i);
+            try {
+                outcomes.add(UploadOutcome.success(filename, pending.get(i).join()));
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (!(cause instanceof InvalidFileException)) {
+                    System.err.println("❌ Upload failed for " + filename + ": " + cause.getMessage());
+                }
+                outcomes.add(UploadOutcome.failure(filename, cause.getMessage()));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Saves a spooled file, reusing the stored object of identical content when
+     * there is one and uploading it to Cloudinary otherwise.
+     */
+    private FileInfo storeSpooledFile(Path spool, long size, String contentHash, String filename, String module,
+            String uploaderEmail) throws IOException, SQLException {
+        try {
+            Optional<FileMetadataService.StoredObject> stored = metadataService.findByContentHash(contentHash, size);
+            if (stored.isPresent()) {
+                FileInfo info = saveReference(stored.get(), contentHash, filename, module, uploaderEmail);
+                if (info != null) {
+                    return info;
+                }
+            }
+
+            CompletableFuture<FileMetadataService.StoredObject> upload = new CompletableFuture<>();
+            CompletableFuture<FileMetadataService.StoredObject> running = uploadsInFlight.putIfAbsent(contentHash, upload);
+            if (running != null) {
+                try {
+                    FileInfo info = saveReference(running.join(), contentHash, filename, module, uploaderEmail);
+                    if (info != null) {
+                        return info;
+                    }
+                } catch (CompletionException e) {
+                    // That upload failed; try this copy on its own
+                }
+                return uploadSpooledFile(spool, contentHash, filename, module, uploaderEmail);
+            }
+
+            try {
+                // An identical upload may have finished between the lookup above and
+                // taking the in-flight slot; its row is committed before it leaves
+                stored = metadataService.findByContentHash(contentHash, size);
+                if (stored.isPresent()) {
+                    FileInfo info = saveReference(stored.get(), contentHash, filename, module, uploaderEmail);
+                    if (info != null) {
+                        upload.complete(stored.get());
+                        return info;
+                    }
+                }
+                FileInfo info = uploadSpooledFile(spool, contentHash, filename, module, uploaderEmail);
+                upload.complete(new FileMetadataService.StoredObject(
+                        info.getStorageKey(), info.getSecureUrl(), info.getFileSize()));
+                return info;
+            } catch (IOException | SQLException | RuntimeException e) {
+                upload.completeExceptionally(e);
+                throw e;
+            } finally {
+                uploadsInFlight.remove(contentHash, upload);
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
 
-            CloudinaryClient.UploadResult uploadResult = cloudinaryClient.uploadRaw(
-                    uploadedFile.content,
-                    uploadedFile.filename,
-                    "unishare/" + module);
+    private FileInfo uploadSpooledFile(Path spool, String contentHash, String filename, String module,
+            String uploaderEmail) throws IOException, SQLException {
+        CloudinaryClient.UploadResult uploadResult = cloudinaryClient.uploadFile(
+                spool, filename, "unishare/" + module);
+
+        FileInfo info = metadataService.saveFileMetadata(
+                module,
+                uploaderEmail,
+                filename,
+                uploadResult.publicId(),
+                uploadResult.secureUrl(),
+                uploadResult.bytes(),
+                contentHash);
+
+        System.out
+                .println("✅ Uploaded to Cloudinary: " + filename + " -> " + uploadResult.secureUrl());
+        return info;
+    }
 
+    /**
+     * Saves a file that points at an existing object. Returns {@code null} if the
+     * object's last reference was deleted since it was looked up.
+     */
+    private FileInfo saveReference(FileMetadataService.StoredObject stored, String contentHash, String filename,
+            String module, String uploaderEmail) throws SQLException {
+        ReentrantLock lock = lockFor(stored.storageKey());
+        lock.lock();
+        try {
+            if (metadataService.countByStorageKey(stored.storageKey(), null) == 0) {
+                return null;
+            }
             FileInfo info = metadataService.saveFileMetadata(
                     module,
                     uploaderEmail,
-                    uploadedFile.filename,
-                    uploadResult.publicId(),
-                    uploadResult.secureUrl(),
-                    uploadResult.bytes());
-
-            results.add(info);
-            System.out
-                    .println("✅ Uploaded to Cloudinary: " + uploadedFile.filename + " -> " + uploadResult.secureUrl());
+                    filename,
+                    stored.storageKey(),
+                    stored.secureUrl(),
+                    stored.sizeBytes(),
+                    contentHash);
+            System.out.println("♻️ Reused stored copy for " + filename + " -> " + stored.secureUrl());
+            return info;
+        } finally {
+            lock.unlock();
         }
+    }
+
+    private ReentrantLock lockFor(String storageKey) {
+        return storageKeyLocks[Math.floorMod(Objects.hashCode(storageKey), storageKeyLocks.length)];
+    }
 
-        return results;
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
 
-    public List<FileInfo> getFilesForModule(String module) throws SQLException {
+    public FileMetadataService.FilePage getFilesForModule(String module, String cursor, int limit)
+            throws SQLException {
         if (module == null || module.trim().isEmpty()) {
-            return Collections.emptyList();
+            return new FileMetadataService.FilePage(Collections.emptyList(), null);
         }
-        return metadataService.getFilesForModule(module);
+        return metadataService.getFilesForModule(module, cursor, limit);
     }
 
     public void deleteFile(UUID fileId) throws SQLException, IOException {
@@ -78,9 +278,21 @@ public class FileService {
         }
 
         FileInfo fileInfo = info.get();
-        cloudinaryClient.deleteRaw(fileInfo.getStorageKey());
-
-        metadataService.deleteById(fileId);
+        ReentrantLock lock = lockFor(fileInfo.getStorageKey());
+        lock.lock();
+        try {
+            // Identical uploads share the object: only the last reference destroys it
+            int others = metadataService.countByStorageKey(fileInfo.getStorageKey(), fileId);
+            if (others == 0) {
+                cloudinaryClient.deleteRaw(fileInfo.getStorageKey());
+            } else {
+                System.out.println("🔗 Kept stored copy of " + fileInfo.getFilename() + ", still used by "
+                        + others + " file(s)");
+            }
+            metadataService.deleteById(fileId);
+        } finally {
+            lock.unlock();
+        }
         System.out.println("🗑️ File metadata removed for " + fileInfo.getFilename());
     }
 
@@ -113,90 +325,77 @@ public class FileService {
         return filename.substring(lastDotIndex + 1);
     }
 
-    private List<UploadedFile> parseMultipartData(byte[] data) throws IOException {
-        List<UploadedFile> files = new ArrayList<>();
+    /**
+     * Result of uploading one file of a multi-file request.
+     */
+    public record UploadOutcome(String filename, FileInfo file, String error) {
 
-        String body = new String(data, StandardCharsets.ISO_8859_1);
-        String boundary = extractBoundary(body);
-        if (boundary == null) {
-            return files;
+        static UploadOutcome success(String filename, FileInfo file) {
+            return new UploadOutcome(filename, file, null);
         }
 
-        String[] parts = body.split(boundary);
-        for (String part : parts) {
-            if (!part.contains("filename=\"")) {
-                continue;
-            }
-
-            String filename = extractFilename(part);
-            if (filename == null) {
-                continue;
-            }
-
-            byte[] content = extractFileBytes(part, body, data, boundary);
-            if (content != null && content.length > 0) {
-                files.add(new UploadedFile(filename, content));
-            }
+        static UploadOutcome failure(String filename, String error) {
+            return new UploadOutcome(filename, null, error != null ? error : "Upload failed");
         }
 
-        return files;
-    }
-
-    private String extractBoundary(String body) {
-        String[] lines = body.split("\r\n");
-        for (String line : lines) {
-            if (line.startsWith("------WebKitFormBoundary")) {
-                return line;
-            }
+        public boolean succeeded() {
+            return file != null;
         }
-        return null;
     }
 
-    private String extractFilename(String part) {
-        String[] headers = part.split("\r\n");
-        for (String header : headers) {
-            if (header.contains("filename=\"")) {
-                int start = header.indexOf("filename=\"") + 10;
-                int end = header.indexOf("\"", start);
-                if (end > start) {
-                    return header.substring(start, end);
-                }
-            }
+    /**
+     * A file rejected by validation before any upload was attempted.
+     */
+    static class InvalidFileException extends IOException {
+        InvalidFileException(String message) {
+            super(message);
         }
-        return null;
     }
 
-    private byte[] extractFileBytes(String part, String body, byte[] data, String boundary) throws IOException {
-        int headerEnd = part.indexOf("\r\n\r\n");
-        if (headerEnd == -1) {
-            return null;
+    /**
+     * Thrown by {@link SizeLimitedInputStream} when a file exceeds the upload limit.
+     */
+    static class FileTooLargeException extends IOException {
+        FileTooLargeException(long limit) {
+            super("file exceeds " + limit + " bytes");
         }
+    }
 
-        String headers = part.substring(0, headerEnd + 4);
-        int offset = body.indexOf(headers) + headers.getBytes(StandardCharsets.ISO_8859_1).length;
+    /**
+     * Passes bytes through and fails as soon as more than {@code limit} have been read.
+     */
+    static class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
 
-        int boundaryIndex = body.indexOf("\r\n" + boundary, offset);
-        if (boundaryIndex == -1) {
-            boundaryIndex = data.length;
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
         }
 
-        int length = boundaryIndex - offset;
-        if (length <= 0) {
-            return null;
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                check(1);
+            }
+            return b;
         }
 
-        byte[] content = new byte[length];
-        System.arraycopy(data, offset, content, 0, length);
-        return content;
-    }
-
-    private static class UploadedFile {
-        final String filename;
-        final byte[] content;
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                check(read);
+            }
+            return read;
+        }
 
-        UploadedFile(String filename, byte[] content) {
-            this.filename = filename;
-            this.content = content;
+        private void check(int read) throws FileTooLargeException {
+            count += read;
+            if (count > limit) {
+                throw new FileTooLargeException(limit);
+            }
         }
     }
 }
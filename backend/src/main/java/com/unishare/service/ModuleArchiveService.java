@@ -0,0 +1,333 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import com.unishare.model.FileInfo;
+import com.unishare.util.OutboundHttpClient;
+import com.unishare.util.RequestExecutors;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams every file of a module as one ZIP archive.
+ * <p>
+ * The archive is written straight into the response; nothing is staged on disk.
+ * Up to {@code UNISHARE_ARCHIVE_READ_AHEAD} entries are fetched in parallel ahead
+ * of the one being written, from the content cache when possible and from
+ * Cloudinary otherwise, so the writer rarely waits on the network. Prefetched
+ * entries are held in memory, at most the upload size limit each.
+ * Already-compressed formats (PDF, images, Office XML, archives) are STORED;
+ * everything else is deflated. At most {@code UNISHARE_ARCHIVE_MAX_CONCURRENT}
+ * archives are built at once.
+ */
+public class ModuleArchiveService {
+
+    private static final String READ_AHEAD_ENV = "UNISHARE_ARCHIVE_READ_AHEAD";
+    private static final String MAX_CONCURRENT_ENV = "UNISHARE_ARCHIVE_MAX_CONCURRENT";
+    private static final int PAGE_SIZE = 200;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "pdf", "png", "jpg", "jpeg", "gif", "webp", "docx", "xlsx", "pptx",
+            "zip", "gz", "7z", "rar", "mp3", "mp4");
+
+    private final FileService fileService;
+    private final ContentCache contentCache;
+    private final BandwidthShaper shaper;
+    private final int readAhead;
+    private final Semaphore slots;
+    private final ExecutorService fetchExecutor;
+
+    public ModuleArchiveService(FileService fileService, ContentCache contentCache, BandwidthShaper shaper) {
+        this(fileService, contentCache, shaper,
+                ServerConfig.readPositiveInt(READ_AHEAD_ENV, 4),
+                ServerConfig.readPositiveInt(MAX_CONCURRENT_ENV, 4));
+    }
+
+    /**
+     * @param contentCache cache consulted before Cloudinary, may be null
+     * @param shaper       bandwidth limits applied to the archive response, may be null
+     */
+    public ModuleArchiveService(FileService fileService, ContentCache contentCache, BandwidthShaper shaper,
+                                int readAhead, int maxConcurrent) {
+        this.fileService = fileService;
+        this.contentCache = contentCache;
+        this.shaper = shaper;
+        this.readAhead = readAhead;
+        this.slots = new Semaphore(maxConcurrent);
+        // At most readAhead fetches per archive, maxConcurrent archives at once
+        this.fetchExecutor = RequestExecutors.newVirtualOrFixed("archive-prefetch", readAhead * maxConcurrent);
+        System.out.println("✅ Module archives: " + readAhead + " entries read ahead, "
+                + maxConcurrent + " archives at once");
+    }
+
+    /**
+     * Lists every file of a module, newest first.
+     */
+    public List<FileInfo> listFiles(String module) throws SQLException {
+        List<FileInfo> files = new ArrayList<>();
+        String cursor = null;
+        do {
+            FileMetadataService.FilePage page = fileService.getFilesForModule(module, cursor, PAGE_SIZE);
+            files.addAll(page.files());
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        return files;
+    }
+
+    /**
+     * Claims one of the archive slots. Callers that get {@code true} must call
+     * {@link #release()} once the archive is written.
+     */
+    public boolean tryAcquire() {
+        return slots.tryAcquire();
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    /**
+     * Writes {@code files} to {@code out} as a ZIP and closes it. Entries that
+     * cannot be fetched are left out and listed in {@code MISSING_FILES.txt}, since
+     * the response status has already been sent.
+     */
+    public void writeArchive(List<FileInfo> files, OutputStream out, String userEmail) throws IOException {
+        long start = System.currentTimeMillis();
+        String shapingKey = "archive-" + UUID.randomUUID();
+        OutputStream target = shaper != null ? shaper.throttle(out, userEmail, shapingKey) : out;
+
+        ArrayDeque<CompletableFuture<Prefetched>> window = new ArrayDeque<>(readAhead);
+        Iterator<FileInfo> pending = files.iterator();
+        Set<String> names = new HashSet<>();
+        List<String> missing = new ArrayList<>();
+        int stored = 0;
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(target, BUFFER_SIZE),
+                StandardCharsets.UTF_8)) {
+            fill(window, pending);
+            while (!window.isEmpty()) {
+                Prefetched entry = await(window.pollFirst());
+                // Start the next fetch before writing this entry
+                fill(window, pending);
+                try {
+                    if (entry.error != null) {
+                        missing.add(entry.file.getFilename() + ": " + entry.error);
+                        continue;
+                    }
+                    if (writeEntry(zip, entry, uniqueName(names, entry.file.getFilename()))) {
+                        stored++;
+                    }
+                } finally {
+                    entry.close();
+                }
+            }
+            if (!missing.isEmpty()) {
+                zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+                zip.putNextEntry(new ZipEntry(uniqueName(names, "MISSING_FILES.txt")));
+                zip.write(String.join("\n", missing).concat("\n").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        } finally {
+            // Entries still being fetched after a failure release their content once done
+            window.forEach(future -> future.thenAccept(Prefetched::close));
+            if (shaper != null) {
+                shaper.forget(shapingKey);
+            }
+        }
+        System.out.println("📦 Archive written: " + (files.size() - missing.size()) + " entries (" + stored
+                + " stored, " + missing.size() + " missing) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void fill(ArrayDeque<CompletableFuture<Prefetched>> window, Iterator<FileInfo> pending) {
+        while (window.size() < readAhead && pending.hasNext()) {
+            FileInfo file = pending.next();
+            window.addLast(CompletableFuture.supplyAsync(() -> prefetch(file), fetchExecutor));
+        }
+    }
+
+    private static Prefetched await(CompletableFuture<Prefetched> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building archive");
+        } catch (ExecutionException e) {
+            throw new IOException("Archive prefetch failed", e.getCause());
+        }
+    }
+
+    /**
+     * Fetches one entry into memory, or takes a cache lease on it. Never throws;
+     * failures are reported through {@link Prefetched#error}.
+     */
+    private Prefetched prefetch(FileInfo file) {
+        boolean storable = isCompressed(file.getFilename());
+        String cacheKey = file.getStorageKey() != null ? file.getStorageKey() : file.getSecureUrl();
+        ContentCache.Lease lease = contentCache != null && cacheKey != null ? contentCache.acquire(cacheKey) : null;
+        try {
+            if (lease != null) {
+                long crc = storable ? crcOf(lease.getFile()) : 0;
+                return new Prefetched(file, storable, null, lease, lease.getSize(), crc, null);
+            }
+            if (file.getSecureUrl() == null) {
+                return Prefetched.failed(file, "no download URL");
+            }
+            OutboundHttpClient http = OutboundHttpClient.shared();
+            HttpRequest request = http.newRequest(URI.create(file.getSecureUrl())).GET().build();
+            HttpResponse<InputStream> response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) {
+                    return Prefetched.failed(file, "HTTP " + response.statusCode());
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                        (int) Math.min(Math.max(file.getFileSize(), 0), ServerConfig.MAX_FILE_SIZE));
+                CRC32 crc = new CRC32();
+                byte[] chunk = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    if (buffer.size() + read > ServerConfig.MAX_FILE_SIZE) {
+                        return Prefetched.failed(file, "larger than the upload limit");
+                    }
+                    buffer.write(chunk, 0, read);
+                    crc.update(chunk, 0, read);
+                }
+                return new Prefetched(file, storable, buffer.toByteArray(), null, buffer.size(), crc.getValue(), null);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (lease != null) {
+                lease.release();
+            }
+            return Prefetched.failed(file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the entry was STORED
+     */
+    private static boolean writeEntry(ZipOutputStream zip, Prefetched entry, String name) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(name);
+        if (entry.file.getUploadInstant() != null) {
+            zipEntry.setTime(entry.file.getUploadInstant().toEpochMilli());
+        }
+        if (entry.storable) {
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(entry.size);
+            zipEntry.setCompressedSize(entry.size);
+            zipEntry.setCrc(entry.crc);
+        } else {
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+            zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        }
+        zip.putNextEntry(zipEntry);
+        if (entry.data != null) {
+            zip.write(entry.data);
+        } else {
+            Files.copy(entry.lease.getFile(), zip);
+        }
+        zip.closeEntry();
+        return entry.storable;
+    }
+
+    private static long crcOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                crc.update(chunk, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Strips directories from a stored filename and numbers repeats, since ZIP
+     * entry names must be unique.
+     */
+    private static String uniqueName(Set<String> used, String filename) {
+        String base = filename == null || filename.isBlank() ? "file" : filename;
+        base = base.substring(Math.max(base.lastIndexOf('/'), base.lastIndexOf('\\')) + 1);
+        if (base.isEmpty()) {
+            base = "file";
+        }
+        String candidate = base;
+        int dot = base.lastIndexOf('.');
+        String stem = dot > 0 ? base.substring(0, dot) : base;
+        String extension = dot > 0 ? base.substring(dot) : "";
+        for (int copy = 2; !used.add(candidate.toLowerCase(Locale.ROOT)); copy++) {
+            candidate = stem + " (" + copy + ")" + extension;
+        }
+        return candidate;
+    }
+
+    private static boolean isCompressed(String filename) {
+        if (filename == null) {
+            return false;
+        }
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * One fetched entry: in-memory bytes or a cache lease, or the reason it failed.
+     */
+    private static final class Prefetched {
+        final FileInfo file;
+        final boolean storable;
+        final byte[] data;
+        final ContentCache.Lease lease;
+        final long size;
+        final long crc;
+        final String error;
+
+        Prefetched(FileInfo file, boolean storable, byte[] data, ContentCache.Lease lease, long size, long crc,
+                   String error) {
+            this.file = file;
+            this.storable = storable;
+            this.data = data;
+            this.lease = lease;
+            this.size = size;
+            this.crc = crc;
+            this.error = error;
+        }
+
+        static Prefetched failed(FileInfo file, String error) {
+            return new Prefetched(file, false, null, null, 0, 0, error != null ? error : "fetch failed");
+        }
+
+        void close() {
+            if (lease != null) {
+                lease.release();
+            }
+        }
+    }
+}
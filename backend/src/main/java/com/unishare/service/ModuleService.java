@@ -1,49 +1,47 @@
 package com.unishare.service;
 
+import com.unishare.model.FileInfo;
 import com.unishare.model.ModuleInfo;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * Service for handling module-related operations.
- * Fetches modules from database.
+ * <p>
+ * Modules and their file counts are loaded from the database once and then served
+ * from memory. File counts are kept current by upload and delete events from
+ * {@link FileMetadataService}, so lookups never query the database after startup.
+ * The same events advance version numbers for the catalogue and for each module,
+ * which handlers use as entity tags.
  */
-public class ModuleService {
+public class ModuleService implements FileMetadataService.Listener {
 
     private final DatabaseService databaseService;
+    private final Object loadLock = new Object();
+    private final AtomicLong versionClock = new AtomicLong();
+    private volatile Catalogue catalogue;
 
     public ModuleService(DatabaseService databaseService) {
         this.databaseService = databaseService;
     }
 
     public List<ModuleInfo> getModules() {
+        Catalogue current = catalogue();
         List<ModuleInfo> modules = new ArrayList<>();
-        try (Connection conn = databaseService.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT m.code, m.name, m.description, COALESCE(fc.file_count, 0) AS file_count " +
-                                "FROM modules m " +
-                                "LEFT JOIN (" +
-                                "    SELECT module, COUNT(*) AS file_count " +
-                                "    FROM files " +
-                                "    GROUP BY module" +
-                                ") fc ON fc.module = m.code " +
-                                "ORDER BY m.name ASC");
-                ResultSet rs = stmt.executeQuery()) {
-
-            while (rs.next()) {
-                String code = rs.getString("code");
-                String name = rs.getString("name");
-                String description = rs.getString("description");
-                int fileCount = rs.getInt("file_count");
-                modules.add(new ModuleInfo(code, name, description, fileCount));
+        if (current != null) {
+            for (CatalogueEntry entry : current.ordered) {
+                modules.add(entry.toModuleInfo());
             }
-        } catch (SQLException e) {
-            System.err.println("Failed to fetch modules: " + e.getMessage());
         }
         return modules;
     }
@@ -52,34 +50,32 @@ public class ModuleService {
         if (code == null)
             return null;
 
-        try (Connection conn = databaseService.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(
-                        "SELECT m.code, m.name, m.description, COALESCE(fc.file_count, 0) AS file_count " +
-                                "FROM modules m " +
-                                "LEFT JOIN (" +
-                                "    SELECT module, COUNT(*) AS file_count " +
-                                "    FROM files " +
-                                "    GROUP BY module" +
-                                ") fc ON fc.module = m.code " +
-                                "WHERE m.code = ?")) {
-            stmt.setString(1, code);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return new ModuleInfo(
-                            rs.getString("code"),
-                            rs.getString("name"),
-                            rs.getString("description"),
-                            rs.getInt("file_count"));
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("Failed to find module: " + e.getMessage());
-        }
-        return null;
+        Catalogue current = catalogue();
+        CatalogueEntry entry = current != null ? current.byCode.get(code) : null;
+        return entry != null ? entry.toModuleInfo() : null;
+    }
+
+    /**
+     * Version of the module list, advanced whenever a load or a file event changes
+     * it. Read it before the modules, so a change in between only costs a re-fetch.
+     */
+    public long getCatalogueVersion() {
+        Catalogue current = catalogue();
+        return current != null ? current.version.get() : 0;
+    }
+
+    /**
+     * Version of one module's details and files, or 0 if the module is unknown.
+     */
+    public long getModuleVersion(String code) {
+        Catalogue current = catalogue();
+        CatalogueEntry entry = current != null && code != null ? current.byCode.get(code) : null;
+        return entry != null ? entry.version.get() : 0;
     }
 
     public boolean isValidModule(String code) {
-        return findByCode(code) != null;
+        Catalogue current = catalogue();
+        return code != null && current != null && current.byCode.containsKey(code);
     }
 
     public String getModuleDescription(String code) {
@@ -95,4 +91,130 @@ public class ModuleService {
                 .map(ModuleInfo::getCode)
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Reloads the catalogue from the database. Called at startup; also useful after
+     * modules are changed directly in the database.
+     */
+    public void refresh() throws SQLException {
+        synchronized (loadLock) {
+            catalogue = loadCatalogue();
+        }
+        System.out.println("✅ Module catalogue loaded with " + catalogue.ordered.size() + " modules");
+    }
+
+    @Override
+    public void fileSaved(FileInfo file) {
+        CatalogueEntry entry = entryFor(file.getModule());
+        if (entry != null) {
+            entry.fileCount.incrementAndGet();
+            advance(entry);
+        }
+    }
+
+    @Override
+    public void fileDeleted(UUID id, String module) {
+        CatalogueEntry entry = entryFor(module);
+        if (entry != null) {
+            entry.fileCount.updateAndGet(count -> Math.max(0, count - 1));
+            advance(entry);
+        }
+    }
+
+    private void advance(CatalogueEntry entry) {
+        long version = versionClock.incrementAndGet();
+        entry.version.accumulateAndGet(version, Math::max);
+        Catalogue current = catalogue;
+        if (current != null) {
+            current.version.accumulateAndGet(version, Math::max);
+        }
+    }
+
+    private CatalogueEntry entryFor(String code) {
+        Catalogue current = catalogue;
+        return current != null && code != null ? current.byCode.get(code) : null;
+    }
+
+    /**
+     * Returns the loaded catalogue, loading it on first use. Returns {@code null}
+     * if the database is unavailable; the next call retries.
+     */
+    private Catalogue catalogue() {
+        Catalogue current = catalogue;
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            if (catalogue == null) {
+                try {
+                    catalogue = loadCatalogue();
+                } catch (SQLException e) {
+                    System.err.println("Failed to fetch modules: " + e.getMessage());
+                }
+            }
+            return catalogue;
+        }
+    }
+
+    private Catalogue loadCatalogue() throws SQLException {
+        long version = versionClock.incrementAndGet();
+        List<CatalogueEntry> ordered = new ArrayList<>();
+        try (Connection conn = databaseService.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT m.code, m.name, m.description, COALESCE(fc.file_count, 0) AS file_count " +
+                                "FROM modules m " +
+                                "LEFT JOIN (" +
+                                "    SELECT module, COUNT(*) AS file_count " +
+                                "    FROM files " +
+                                "    GROUP BY module" +
+                                ") fc ON fc.module = m.code " +
+                                "ORDER BY m.name ASC");
+                ResultSet rs = stmt.executeQuery()) {
+
+            while (rs.next()) {
+                ordered.add(new CatalogueEntry(
+                        rs.getString("code"),
+                        rs.getString("name"),
+                        rs.getString("description"),
+                        rs.getInt("file_count"),
+                        version));
+            }
+        }
+        return new Catalogue(ordered, version);
+    }
+
+    private static final class Catalogue {
+        final List<CatalogueEntry> ordered;
+        final Map<String, CatalogueEntry> byCode;
+        final AtomicLong version;
+
+        Catalogue(List<CatalogueEntry> ordered, long version) {
+            this.ordered = List.copyOf(ordered);
+            this.version = new AtomicLong(version);
+            this.byCode = new HashMap<>();
+            for (CatalogueEntry entry : ordered) {
+                byCode.put(entry.code, entry);
+            }
+        }
+    }
+
+    private static final class CatalogueEntry {
+        final String code;
+        final String name;
+        final String description;
+        final AtomicInteger fileCount;
+        final AtomicLong version;
+
+        CatalogueEntry(String code, String name, String description, int fileCount, long version) {
+            this.code = code;
+            this.name = name;
+            this.description = description;
+            this.fileCount = new AtomicInteger(fileCount);
+            this.version = new AtomicLong(version);
+        }
+
+        ModuleInfo toModuleInfo() {
+            return new ModuleInfo(code, name, description, fileCount.get());
+        }
+    }
 }
@@ -1,5 +1,10 @@
 package com.unishare.service;
 
+import com.unishare.util.HttpResponses;
+import com.unishare.util.RequestExecutors;
+import com.unishare.util.OutboundHttpClient;
+import com.unishare.util.TtlCache;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -13,10 +18,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
 
 /**
  * Produces monitoring metrics for the UniShare system and records telemetry events.
@@ -29,12 +37,79 @@ public class MonitoringService {
 
     private final DatabaseService databaseService;
     private final Instant serverStartedAt;
+    private final Map<String, Supplier<TtlCache.Stats>> caches = new ConcurrentSkipListMap<>();
+    private volatile Supplier<CacheWarmer.Stats> cacheWarmer;
+    private volatile Supplier<UploadScheduler.Stats> uploadScheduler;
 
     public MonitoringService(DatabaseService databaseService, Instant serverStartedAt) {
         this.databaseService = databaseService;
         this.serverStartedAt = serverStartedAt != null ? serverStartedAt : Instant.now();
     }
 
+    /**
+     * Adds a cache whose counters are reported under {@code performanceMetrics.caches}.
+     */
+    public void registerCache(String name, Supplier<TtlCache.Stats> stats) {
+        caches.put(name, stats);
+    }
+
+    /**
+     * Adds the cache warmer, whose counters are reported under
+     * {@code performanceMetrics.cacheWarmer}.
+     */
+    public void registerCacheWarmer(Supplier<CacheWarmer.Stats> stats) {
+        cacheWarmer = stats;
+    }
+
+    /**
+     * Adds the upload scheduler, whose counters are reported under
+     * {@code performanceMetrics.uploadScheduler}.
+     */
+    public void registerUploadScheduler(Supplier<UploadScheduler.Stats> stats) {
+        uploadScheduler = stats;
+    }
+
+    /**
+     * Ranks files by download velocity over the last {@code window}. Each download
+     * scores {@code exp(-age / (window / 4))}, so a burst in the last minutes
+     * outranks the same count spread over the window. Files with fewer than
+     * {@code minDownloads} downloads in the window are left out.
+     */
+    public List<TrendingFile> findTrendingFiles(Duration window, int minDownloads, int limit) throws SQLException {
+        double windowSeconds = Math.max(1, window.getSeconds());
+        List<TrendingFile> files = new ArrayList<>();
+        try (Connection connection = databaseService.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT f.id, f.module, f.storage_key, f.secure_url, f.size_bytes, " +
+                             "COUNT(*) AS downloads, " +
+                             "SUM(EXP(-EXTRACT(EPOCH FROM (NOW() - e.downloaded_at)) / ?)) AS score " +
+                             "FROM file_download_events e " +
+                             "JOIN files f ON f.id = e.file_id " +
+                             "WHERE e.downloaded_at >= NOW() - make_interval(secs => ?) " +
+                             "GROUP BY f.id, f.module, f.storage_key, f.secure_url, f.size_bytes " +
+                             "HAVING COUNT(*) >= ? " +
+                             "ORDER BY score DESC " +
+                             "LIMIT ?")) {
+            statement.setDouble(1, windowSeconds / 4);
+            statement.setDouble(2, windowSeconds);
+            statement.setInt(3, minDownloads);
+            statement.setInt(4, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    files.add(new TrendingFile(
+                            (UUID) resultSet.getObject("id"),
+                            resultSet.getString("module"),
+                            resultSet.getString("storage_key"),
+                            resultSet.getString("secure_url"),
+                            resultSet.getLong("size_bytes"),
+                            resultSet.getLong("downloads"),
+                            resultSet.getDouble("score")));
+                }
+            }
+        }
+        return files;
+    }
+
     /**
      * Persists a download telemetry event.
      */
@@ -360,6 +435,17 @@ public class MonitoringService {
         metrics.freeMemoryBytes = free;
         metrics.usedMemoryBytes = used;
         metrics.uptime = Duration.between(serverStartedAt, Instant.now());
+        metrics.connectionPool = databaseService.getPoolStats();
+        caches.forEach((name, stats) -> metrics.caches.put(name, stats.get()));
+        metrics.responseCompression = HttpResponses.getStats();
+        metrics.notModifiedResponses = HttpResponses.getNotModifiedCount();
+        metrics.shedRequests = RequestExecutors.getShedCount();
+        metrics.droppedConnections = RequestExecutors.getDroppedCount();
+        metrics.outboundHttp = OutboundHttpClient.shared().getStats();
+        Supplier<CacheWarmer.Stats> warmer = cacheWarmer;
+        metrics.cacheWarmer = warmer != null ? warmer.get() : null;
+        Supplier<UploadScheduler.Stats> uploads = uploadScheduler;
+        metrics.uploadScheduler = uploads != null ? uploads.get() : null;
         return metrics;
     }
 
@@ -557,6 +643,43 @@ public class MonitoringService {
             json.append("\"usedFormatted\":\"").append(escape(formatSize(performance.usedMemoryBytes))).append("\",");
             json.append("\"freeFormatted\":\"").append(escape(formatSize(performance.freeMemoryBytes))).append("\"");
             json.append("},");
+            if (performance.connectionPool != null) {
+                json.append("\"connectionPool\":").append(performance.connectionPool.toJson()).append(",");
+            }
+            if (performance.responseCompression != null) {
+                json.append("\"responseCompression\":").append(performance.responseCompression.toJson()).append(",");
+            }
+            json.append("\"notModifiedResponses\":").append(performance.notModifiedResponses).append(",");
+            json.append("\"shedRequests\":").append(performance.shedRequests).append(",");
+            json.append("\"droppedConnections\":").append(performance.droppedConnections).append(",");
+            if (!performance.outboundHttp.isEmpty()) {
+                json.append("\"outboundHttp\":[");
+                for (int i = 0; i < performance.outboundHttp.size(); i++) {
+                    if (i > 0) {
+                        json.append(",");
+                    }
+                    json.append(performance.outboundHttp.get(i).toJson());
+                }
+                json.append("],");
+            }
+            if (!performance.caches.isEmpty()) {
+                json.append("\"caches\":{");
+                boolean first = true;
+                for (Map.Entry<String, TtlCache.Stats> cache : performance.caches.entrySet()) {
+                    if (!first) {
+                        json.append(",");
+                    }
+                    first = false;
+                    json.append("\"").append(escape(cache.getKey())).append("\":").append(cache.getValue().toJson());
+                }
+                json.append("},");
+            }
+            if (performance.cacheWarmer != null) {
+                json.append("\"cacheWarmer\":").append(performance.cacheWarmer.toJson()).append(",");
+            }
+            if (performance.uploadScheduler != null) {
+                json.append("\"uploadScheduler\":").append(performance.uploadScheduler.toJson()).append(",");
+            }
             json.append("\"generatedAt\":\"").append(formatInstant(generatedAt)).append("\"");
             json.append("}");
         }
@@ -767,6 +890,22 @@ public class MonitoringService {
         long usedMemoryBytes;
         long freeMemoryBytes;
         Duration uptime = Duration.ZERO;
+        ConnectionPool.PoolStats connectionPool;
+        Map<String, TtlCache.Stats> caches = new LinkedHashMap<>();
+        HttpResponses.CompressionStats responseCompression;
+        long notModifiedResponses;
+        long shedRequests;
+        long droppedConnections;
+        List<OutboundHttpClient.HostStats> outboundHttp = Collections.emptyList();
+        CacheWarmer.Stats cacheWarmer;
+        UploadScheduler.Stats uploadScheduler;
+    }
+
+    /**
+     * A file ranked by {@link #findTrendingFiles}.
+     */
+    public record TrendingFile(UUID fileId, String module, String storageKey, String secureUrl,
+                               long sizeBytes, long downloads, double score) {
     }
 }
 
@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service for managing user notifications
@@ -12,6 +13,9 @@ public class NotificationService {
 
     // Map of userId -> List of notifications
     private final Map<UUID, List<Notification>> userNotifications = new ConcurrentHashMap<>();
+    // Map of userId -> version, advanced on every change to that user's notifications.
+    // Kept apart from the lists so clearing them does not reset it.
+    private final Map<UUID, AtomicLong> versions = new ConcurrentHashMap<>();
     private final ModuleSubscriptionService subscriptionService;
 
     public NotificationService(ModuleSubscriptionService subscriptionService) {
@@ -63,6 +67,19 @@ public class NotificationService {
         if (notifications.size() > 50) {
             notifications.remove(0);
         }
+        advance(userId);
+    }
+
+    /**
+     * Get the version of a user's notifications, for use as an entity tag
+     */
+    public long getVersion(UUID userId) {
+        AtomicLong version = versions.get(userId);
+        return version != null ? version.get() : 0;
+    }
+
+    private void advance(UUID userId) {
+        versions.computeIfAbsent(userId, k -> new AtomicLong()).incrementAndGet();
     }
 
     /**
@@ -94,6 +111,7 @@ public class NotificationService {
         for (Notification notification : notifications) {
             if (notification.getId().equals(notificationId)) {
                 notification.setRead(true);
+                advance(userId);
                 return true;
             }
         }
@@ -108,6 +126,7 @@ public class NotificationService {
         List<Notification> notifications = userNotifications.get(userId);
         if (notifications != null) {
             notifications.forEach(n -> n.setRead(true));
+            advance(userId);
         }
     }
 
@@ -116,6 +135,7 @@ public class NotificationService {
      */
     public void clearNotifications(UUID userId) {
         userNotifications.remove(userId);
+        advance(userId);
     }
 
     /**
@@ -57,7 +57,14 @@ public final class SchemaInitializer {
 
             // Helpful indexes for faster module/file lookups
             statement.execute("CREATE INDEX IF NOT EXISTS files_module_idx ON files (module)");
-            statement.execute("CREATE INDEX IF NOT EXISTS files_module_uploaded_idx ON files (module, uploaded_at DESC)");
+            // Keyset pagination seeks on (uploaded_at, id) within a module; id breaks timestamp ties.
+            statement.execute("CREATE INDEX IF NOT EXISTS files_module_uploaded_id_idx ON files (module, uploaded_at DESC, id DESC)");
+            statement.execute("DROP INDEX IF EXISTS files_module_uploaded_idx");
+            // Uploads with the same content share one Cloudinary object; rows from before
+            // hashing have no hash and are never matched.
+            statement.execute("ALTER TABLE files ADD COLUMN IF NOT EXISTS content_hash CHAR(64)");
+            statement.execute("CREATE INDEX IF NOT EXISTS files_content_hash_idx ON files (content_hash)");
+            statement.execute("CREATE INDEX IF NOT EXISTS files_storage_key_idx ON files (storage_key)");
 
             statement.execute(
                     "CREATE TABLE IF NOT EXISTS file_download_events (" +
@@ -0,0 +1,88 @@
+package com.unishare.service;
+
+import com.unishare.config.ServerConfig;
+import com.unishare.util.RequestExecutors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs outbound Cloudinary uploads in parallel with a global concurrency cap shared
+ * by all requests. Tasks wait for a permit on their own worker thread, so callers
+ * never block on the cap itself.
+ */
+public class UploadScheduler {
+
+    private static final String MAX_UPLOADS_ENV = "UNISHARE_MAX_CONCURRENT_UPLOADS";
+
+    private final ExecutorService executor;
+    private final Semaphore globalPermits;
+    private final int maxConcurrentUploads;
+    private final AtomicLong completedUploads = new AtomicLong();
+    private final AtomicLong failedUploads = new AtomicLong();
+
+    public UploadScheduler() {
+        this(ServerConfig.readPositiveInt(MAX_UPLOADS_ENV, ServerConfig.MAX_CONCURRENT_UPLOADS));
+    }
+
+    public UploadScheduler(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.globalPermits = new Semaphore(maxConcurrentUploads, true);
+        // Without virtual threads, queued uploads wait in the pool's queue rather
+        // than each holding a thread blocked on the semaphore
+        this.executor = RequestExecutors.newVirtualOrFixed("cloudinary-upload", maxConcurrentUploads);
+        System.out.println("✅ UploadScheduler initialized with " + maxConcurrentUploads + " concurrent uploads");
+    }
+
+    /**
+     * Schedules an upload task. The task runs once a global upload permit is free.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> upload) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                globalPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+                return;
+            }
+            try {
+                result.complete(upload.call());
+                completedUploads.incrementAndGet();
+            } catch (Throwable t) {
+                failedUploads.incrementAndGet();
+                result.completeExceptionally(t);
+            } finally {
+                globalPermits.release();
+            }
+        });
+        return result;
+    }
+
+    public Stats getStats() {
+        return new Stats(maxConcurrentUploads, maxConcurrentUploads - globalPermits.availablePermits(),
+                globalPermits.getQueueLength(), completedUploads.get(), failedUploads.get());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Point-in-time upload counters. {@code waiting} counts tasks blocked on a
+     * permit; with the fixed-pool fallback, tasks still in the pool's queue are
+     * not included.
+     */
+    public record Stats(int maxConcurrent, int active, int waiting, long completed, long failed) {
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"maxConcurrent\":%d,\"active\":%d,\"waiting\":%d,\"completed\":%d,\"failed\":%d}",
+                    maxConcurrent, active, waiting, completed, failed);
+        }
+    }
+}
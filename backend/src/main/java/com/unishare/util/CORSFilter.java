@@ -29,9 +29,9 @@ public class CORSFilter {
         exchange.getResponseHeaders().set("Access-Control-Allow-Methods",
                 "GET, POST, PUT, DELETE, OPTIONS");
         exchange.getResponseHeaders().set("Access-Control-Allow-Headers",
-                "Content-Type, Authorization, X-Requested-With, Accept");
+                "Content-Type, Authorization, X-Requested-With, Accept, Range, If-Range, If-None-Match");
         exchange.getResponseHeaders().set("Access-Control-Expose-Headers",
-                "Content-Disposition");
+                "Content-Disposition, Content-Range, Accept-Ranges, ETag");
         exchange.getResponseHeaders().set("Access-Control-Max-Age", "3600");
         exchange.getResponseHeaders().add("Vary", "Origin");
 
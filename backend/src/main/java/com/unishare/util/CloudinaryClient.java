@@ -2,18 +2,25 @@ package com.unishare.util;
 
 import com.unishare.config.CloudinaryConfig;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 /**
  * Minimal Cloudinary client that performs raw uploads and deletions via REST
@@ -26,6 +33,7 @@ public final class CloudinaryClient {
     private final String cloudName;
     private final String apiKey;
     private final String apiSecret;
+    private final OutboundHttpClient http = OutboundHttpClient.shared();
 
     private CloudinaryClient(String cloudName, String apiKey, String apiSecret) {
         this.cloudName = cloudName;
@@ -54,6 +62,43 @@ public final class CloudinaryClient {
      * supported types receive correct Content-Type headers for inline preview.
      */
     public UploadResult uploadRaw(byte[] content, String filename, String folder) throws IOException {
+        return upload(HttpRequest.BodyPublishers.ofByteArray(content), () -> content.length, filename, folder);
+    }
+
+    /**
+     * Uploads a file from disk. The body is reopened from {@code file} whenever it
+     * is sent, so a redirect that repeats the POST sends the whole file again.
+     */
+    public UploadResult uploadFile(Path file, String filename, String folder) throws IOException {
+        long size = Files.size(file);
+        return upload(HttpRequest.BodyPublishers.ofFile(file), () -> size, filename, folder);
+    }
+
+    /**
+     * Streams a file to Cloudinary without a known length (chunked on HTTP/1.1), so
+     * the content is never held in memory. If reading {@code content} fails part-way
+     * (for example a size limit enforced by the caller's stream), the request body
+     * errors out before it is complete and Cloudinary discards the partial upload.
+     * The stream can only be read once: a redirect that would send the body again
+     * fails the upload instead of sending an empty or truncated file.
+     */
+    public UploadResult uploadStream(InputStream content, String filename, String folder) throws IOException {
+        CountingInputStream counted = new CountingInputStream(content);
+        AtomicBoolean opened = new AtomicBoolean();
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            if (!opened.compareAndSet(false, true)) {
+                throw new UncheckedIOException(new IOException("Upload stream cannot be sent twice"));
+            }
+            return counted;
+        });
+        return upload(body, () -> counted.count, filename, folder);
+    }
+
+    /**
+     * @param bytesSent file bytes in the body, used when Cloudinary does not report the size
+     */
+    private UploadResult upload(HttpRequest.BodyPublisher content, LongSupplier bytesSent, String filename,
+                                String folder) throws IOException {
         long timestamp = Instant.now().getEpochSecond();
 
         String folderParam = folder != null ? folder : "";
@@ -71,30 +116,29 @@ public final class CloudinaryClient {
         // Use 'auto' resource type to let Cloudinary detect MIME type
         // No explicit type parameter needed - defaults to 'upload' (public)
         String endpoint = String.format("https://api.cloudinary.com/v1_1/%s/auto/upload", cloudName);
-        HttpURLConnection connection = (HttpURLConnection) URI.create(endpoint).toURL().openConnection();
         String boundary = "----UniShareBoundary" + System.currentTimeMillis();
 
-        connection.setRequestMethod("POST");
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            writeFormField(os, boundary, "api_key", apiKey);
-            writeFormField(os, boundary, "timestamp", String.valueOf(timestamp));
-            writeFormField(os, boundary, "signature", signature);
-            if (!folderParam.isEmpty()) {
-                writeFormField(os, boundary, "folder", folderParam);
-            }
-            writeFileField(os, boundary, "file", filename, content);
-            os.write(("--" + boundary + "--").getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        writeFormField(head, boundary, "api_key", apiKey);
+        writeFormField(head, boundary, "timestamp", String.valueOf(timestamp));
+        writeFormField(head, boundary, "signature", signature);
+        if (!folderParam.isEmpty()) {
+            writeFormField(head, boundary, "folder", folderParam);
         }
+        writeFileHeader(head, boundary, "file", filename);
+        byte[] tail = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.UTF_8);
 
-        int status = connection.getResponseCode();
-        InputStream responseStream = status >= 200 && status < 300
-                ? connection.getInputStream()
-                : connection.getErrorStream();
-        String responseBody = readStream(responseStream);
-        connection.disconnect();
+        HttpRequest request = http.newRequest(URI.create(endpoint))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofByteArray(head.toByteArray()),
+                        content,
+                        HttpRequest.BodyPublishers.ofByteArray(tail)))
+                .build();
+
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        int status = response.statusCode();
+        String responseBody = response.body();
 
         if (status < 200 || status >= 300) {
             throw new IOException("Cloudinary upload failed (" + status + "): " + responseBody);
@@ -105,7 +149,7 @@ public final class CloudinaryClient {
         String secureUrl = payload.get("secure_url");
         String bytesStr = payload.get("bytes");
 
-        long bytes = bytesStr != null ? Long.parseLong(bytesStr) : content.length;
+        long bytes = bytesStr != null ? Long.parseLong(bytesStr) : bytesSent.getAsLong();
         if (publicId == null || secureUrl == null) {
             throw new IOException("Cloudinary response missing identifiers: " + responseBody);
         }
@@ -121,27 +165,25 @@ public final class CloudinaryClient {
         String signature = sha1Hex(toSign + apiSecret);
 
         String endpoint = String.format("https://api.cloudinary.com/v1_1/%s/raw/destroy", cloudName);
-        HttpURLConnection connection = (HttpURLConnection) URI.create(endpoint).toURL().openConnection();
         String boundary = "----UniShareBoundary" + System.currentTimeMillis();
 
-        connection.setRequestMethod("POST");
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeFormField(body, boundary, "api_key", apiKey);
+        writeFormField(body, boundary, "timestamp", String.valueOf(timestamp));
+        writeFormField(body, boundary, "signature", signature);
+        writeFormField(body, boundary, "public_id", publicId);
+        body.write(("--" + boundary + "--").getBytes(StandardCharsets.UTF_8));
 
-        try (OutputStream os = connection.getOutputStream()) {
-            writeFormField(os, boundary, "api_key", apiKey);
-            writeFormField(os, boundary, "timestamp", String.valueOf(timestamp));
-            writeFormField(os, boundary, "signature", signature);
-            writeFormField(os, boundary, "public_id", publicId);
-            os.write(("--" + boundary + "--").getBytes(StandardCharsets.UTF_8));
-        }
+        HttpRequest request = http.newRequest(URI.create(endpoint))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
 
-        int status = connection.getResponseCode();
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        int status = response.statusCode();
         if (status < 200 || status >= 300) {
-            String responseBody = readStream(connection.getErrorStream());
-            throw new IOException("Cloudinary destroy failed (" + status + "): " + responseBody);
+            throw new IOException("Cloudinary destroy failed (" + status + "): " + response.body());
         }
-        connection.disconnect();
     }
 
     private void writeFormField(OutputStream os, String boundary, String name, String value) throws IOException {
@@ -151,28 +193,12 @@ public final class CloudinaryClient {
         os.write("\r\n".getBytes(StandardCharsets.UTF_8));
     }
 
-    private void writeFileField(OutputStream os, String boundary, String fieldName, String filename, byte[] content)
+    private void writeFileHeader(OutputStream os, String boundary, String fieldName, String filename)
             throws IOException {
         os.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
         os.write(("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + filename + "\"\r\n")
                 .getBytes(StandardCharsets.UTF_8));
         os.write("Content-Type: application/octet-stream\r\n\r\n".getBytes(StandardCharsets.UTF_8));
-        os.write(content);
-        os.write("\r\n".getBytes(StandardCharsets.UTF_8));
-    }
-
-    private String readStream(InputStream stream) throws IOException {
-        if (stream == null) {
-            return "";
-        }
-        try (InputStream is = stream; ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[4096];
-            int read;
-            while ((read = is.read(buffer)) != -1) {
-                baos.write(buffer, 0, read);
-            }
-            return baos.toString(StandardCharsets.UTF_8);
-        }
     }
 
     private String sha1Hex(String value) {
@@ -189,6 +215,35 @@ public final class CloudinaryClient {
         }
     }
 
+    /**
+     * Counts the file bytes handed to the request body.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
     public record UploadResult(String publicId, String secureUrl, long bytes) {
     }
 
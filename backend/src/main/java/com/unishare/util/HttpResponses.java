@@ -0,0 +1,448 @@
+package com.unishare.util;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.unishare.config.ServerConfig;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Shared response writer for the API handlers.
+ * <p>
+ * Bodies larger than {@code UNISHARE_COMPRESSION_MIN_BYTES} (default 1 KB) are
+ * compressed with gzip or deflate when the client's {@code Accept-Encoding}
+ * allows it. Compressed output is streamed straight into a chunked response, so
+ * no compressed copy of the body is buffered. Compression ratio and the CPU time
+ * spent compressing are tracked in {@link #getStats()}; virtual threads report no
+ * CPU time, so on them the wall-clock time of compressing and writing is counted.
+ */
+public final class HttpResponses {
+
+    private static final String MIN_BYTES_ENV = "UNISHARE_COMPRESSION_MIN_BYTES";
+    private static final int MIN_COMPRESS_BYTES = ServerConfig.readPositiveInt(MIN_BYTES_ENV, 1024);
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+    // Version counters restart with the process; tagging them with the start time
+    // keeps a counter value from before a restart from matching a new body
+    private static final String INSTANCE_TAG = Long.toString(System.currentTimeMillis(), 36);
+
+    private static final AtomicLong responses = new AtomicLong();
+    private static final AtomicLong notModifiedResponses = new AtomicLong();
+    private static final AtomicLong gzipResponses = new AtomicLong();
+    private static final AtomicLong deflateResponses = new AtomicLong();
+    private static final AtomicLong uncompressedBytes = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+    private static final AtomicLong compressionCpuNanos = new AtomicLong();
+
+    private HttpResponses() {
+    }
+
+    /**
+     * Sends a JSON body with CORS headers.
+     */
+    public static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        CORSFilter.addCORSHeaders(exchange);
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends {@code {"error": message}} with CORS headers.
+     */
+    public static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, "{\"error\":\"" + message + "\"}");
+    }
+
+    /**
+     * Builds a weak entity tag from in-memory version counters. Weak because the
+     * same tag covers the gzip, deflate and identity forms of a body.
+     */
+    public static String versionTag(String kind, long... versions) {
+        StringBuilder tag = new StringBuilder("W/\"").append(kind).append('-').append(INSTANCE_TAG);
+        for (long version : versions) {
+            tag.append('-').append(Long.toString(version, 36));
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * Answers a conditional GET. Sets {@code ETag}, and {@code Cache-Control:
+     * no-cache} so browsers revalidate instead of reusing the body unchecked. When
+     * {@code If-None-Match} names the tag, sends 304 with CORS headers and no body
+     * and returns true; the caller then has nothing left to build or send.
+     */
+    public static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", "private, no-cache");
+        String method = exchange.getRequestMethod();
+        if (!("GET".equals(method) || "HEAD".equals(method))
+                || !ifNoneMatchMatches(exchange.getRequestHeaders().get("If-None-Match"), etag)) {
+            return false;
+        }
+        CORSFilter.addCORSHeaders(exchange);
+        headers.add("Vary", "Accept-Encoding");
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        notModifiedResponses.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Evaluates {@code If-None-Match} values with weak comparison, as RFC 9110
+     * requires for GET.
+     */
+    static boolean ifNoneMatchMatches(List<String> values, String etag) {
+        if (values == null || etag == null) {
+            return false;
+        }
+        String opaque = opaqueTag(etag);
+        for (String value : values) {
+            for (String candidate : value.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || opaqueTag(tag).equals(opaque)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    public static long getNotModifiedCount() {
+        return notModifiedResponses.get();
+    }
+
+    /**
+     * Sends a body, compressing it if the client accepts it and it is large enough.
+     * Does not add CORS headers. Closes the exchange's response body.
+     */
+    public static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        responses.incrementAndGet();
+        if (status >= 400) {
+            // A tag set before the request failed must not let the error be revalidated
+            exchange.getResponseHeaders().remove("ETag");
+            exchange.getResponseHeaders().remove("Cache-Control");
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+
+        String encoding = body.length >= MIN_COMPRESS_BYTES
+                ? negotiateEncoding(exchange.getRequestHeaders().getFirst("Accept-Encoding"))
+                : null;
+        if (encoding == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        exchange.sendResponseHeaders(status, 0);
+        CountingOutputStream counter = new CountingOutputStream(exchange.getResponseBody());
+        long cpuStart = cpuTime();
+        long wallStart = System.nanoTime();
+        try (OutputStream out = "gzip".equals(encoding)
+                ? new GZIPOutputStream(counter, CHUNK_SIZE)
+                : new DeflaterOutputStream(counter)) {
+            for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+                out.write(body, offset, Math.min(CHUNK_SIZE, body.length - offset));
+            }
+        } finally {
+            compressionCpuNanos.addAndGet(elapsedCpu(cpuStart, wallStart));
+            uncompressedBytes.addAndGet(body.length);
+            compressedBytes.addAndGet(counter.count);
+            ("gzip".equals(encoding) ? gzipResponses : deflateResponses).incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends a file as is, streamed in chunks with constant memory whatever its size.
+     * The caller sets content headers. Closes the exchange's response body.
+     */
+    public static void sendFile(HttpExchange exchange, int status, Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                transfer(channel, 0, length, out);
+            }
+        }
+    }
+
+    /**
+     * Sends a file honouring {@code Range} and {@code If-Range}: a full 200, a 206
+     * with one range, a 206 {@code multipart/byteranges} body for several ranges, or
+     * 416 when no requested range is satisfiable. Sets {@code Accept-Ranges},
+     * {@code ETag} and {@code Last-Modified}; the caller sets the rest.
+     *
+     * @param etag         strong entity tag including quotes, or {@code null}
+     * @param lastModified modification time used for date-based {@code If-Range}, or {@code null}
+     * @return true if the complete file was sent with status 200
+     */
+    public static boolean sendFileRanges(HttpExchange exchange,
+                                         Path file,
+                                         long length,
+                                         String contentType,
+                                         String etag,
+                                         Instant lastModified) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Accept-Ranges", "bytes");
+        headers.set("Content-Type", contentType);
+        if (etag != null) {
+            headers.set("ETag", etag);
+        }
+        if (lastModified != null) {
+            headers.set("Last-Modified", HTTP_DATE.format(lastModified));
+        }
+
+        List<ByteRanges.Range> ranges = null;
+        if ("GET".equals(exchange.getRequestMethod())) {
+            ranges = ByteRanges.parse(exchange.getRequestHeaders().getFirst("Range"), length);
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ranges != null && ifRange != null && !ifRangeMatches(ifRange.trim(), etag, lastModified)) {
+                ranges = null;
+            }
+        }
+
+        if (ranges == null) {
+            sendFile(exchange, 200, file, length);
+            return true;
+        }
+        if (ranges.isEmpty()) {
+            headers.set("Content-Range", "bytes */" + length);
+            exchange.sendResponseHeaders(416, -1);
+            exchange.getResponseBody().close();
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ranges.size() == 1) {
+                ByteRanges.Range range = ranges.get(0);
+                headers.set("Content-Range", range.contentRange(length));
+                exchange.sendResponseHeaders(206, range.length());
+                try (OutputStream out = exchange.getResponseBody()) {
+                    transfer(channel, range.start(), range.length(), out);
+                }
+                return false;
+            }
+
+            String boundary = "unishare-" + UUID.randomUUID();
+            byte[][] partHeaders = new byte[ranges.size()][];
+            byte[] crlf = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+            byte[] closing = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            long total = closing.length;
+            for (int i = 0; i < ranges.size(); i++) {
+                ByteRanges.Range range = ranges.get(i);
+                partHeaders[i] = ("--" + boundary + "\r\n"
+                        + "Content-Type: " + contentType + "\r\n"
+                        + "Content-Range: " + range.contentRange(length) + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                total += partHeaders[i].length + range.length() + crlf.length;
+            }
+
+            headers.set("Content-Type", "multipart/byteranges; boundary=" + boundary);
+            exchange.sendResponseHeaders(206, total);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < ranges.size(); i++) {
+                    ByteRanges.Range range = ranges.get(i);
+                    out.write(partHeaders[i]);
+                    transfer(channel, range.start(), range.length(), out);
+                    out.write(crlf);
+                }
+                out.write(closing);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Evaluates an {@code If-Range} value: an entity tag must match strongly, a date
+     * must equal the modification time to the second.
+     */
+    static boolean ifRangeMatches(String ifRange, String etag, Instant lastModified) {
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            Instant date = Instant.from(HTTP_DATE.parse(ifRange));
+            return date.getEpochSecond() == lastModified.getEpochSecond();
+        } catch (DateTimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies {@code count} bytes starting at {@code position} of the channel to {@code out}.
+     * {@code HttpServer} only exposes the response as an {@link OutputStream}, so
+     * {@code transferTo} has no sendfile path here: the JDK copies through a small
+     * buffer, and memory use stays constant rather than the copy being avoided.
+     */
+    static void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long end = position + count;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                throw new EOFException("File ended at byte " + position + " of " + end);
+            }
+            position += sent;
+        }
+    }
+
+    /**
+     * Picks gzip or deflate from an {@code Accept-Encoding} header, honouring
+     * q-values. Returns {@code null} when the body should be sent as is.
+     */
+    static String negotiateEncoding(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double wildcard = 0;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = quality;
+                case "deflate" -> deflate = quality;
+                case "*" -> wildcard = quality;
+                default -> {
+                }
+            }
+        }
+        // Codings not listed explicitly inherit the wildcard's quality.
+        if (gzip < 0) {
+            gzip = wildcard;
+        }
+        if (deflate < 0) {
+            deflate = wildcard;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        return deflate > 0 ? "deflate" : null;
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * CPU time since {@code cpuStart}. Virtual threads report no CPU time (-1), as do
+     * JVMs without support; wall-clock time since {@code wallStart} stands in then.
+     */
+    private static long elapsedCpu(long cpuStart, long wallStart) {
+        long cpuEnd = cpuTime();
+        if (cpuStart < 0 || cpuEnd < 0) {
+            return System.nanoTime() - wallStart;
+        }
+        return cpuEnd - cpuStart;
+    }
+
+    public static CompressionStats getStats() {
+        return new CompressionStats(
+                responses.get(),
+                gzipResponses.get(),
+                deflateResponses.get(),
+                uncompressedBytes.get(),
+                compressedBytes.get(),
+                compressionCpuNanos.get(),
+                MIN_COMPRESS_BYTES);
+    }
+
+    /**
+     * Point-in-time compression counters. Byte counts cover compressed responses only.
+     * {@code cpuNanos} is wall-clock time for responses written on virtual threads.
+     */
+    public record CompressionStats(long responses,
+                                   long gzipResponses,
+                                   long deflateResponses,
+                                   long uncompressedBytes,
+                                   long compressedBytes,
+                                   long cpuNanos,
+                                   int minBytes) {
+
+        public double ratio() {
+            return uncompressedBytes == 0 ? 0.0 : (double) compressedBytes / uncompressedBytes;
+        }
+
+        public String toJson() {
+            long compressed = gzipResponses + deflateResponses;
+            return String.format(Locale.ROOT,
+                    "{\"responses\":%d,\"compressedResponses\":%d,\"gzip\":%d,\"deflate\":%d," +
+                            "\"uncompressedBytes\":%d,\"compressedBytes\":%d,\"ratio\":%.3f," +
+                            "\"cpuMillis\":%.1f,\"avgCpuMicros\":%.1f,\"minBytes\":%d}",
+                    responses, compressed, gzipResponses, deflateResponses,
+                    uncompressedBytes, compressedBytes, ratio(),
+                    cpuNanos / 1_000_000.0,
+                    compressed == 0 ? 0.0 : cpuNanos / 1_000.0 / compressed,
+                    minBytes);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -77,7 +77,7 @@ public final class JsonUtils {
         return trimmed.replace("\\\"", "\"");
     }
 
-    private static String escape(String input) {
+    public static String escape(String input) {
         return input.replace("\\", "\\\\")
                 .replace("\"", "\\\"")
                 .replace("\n", "\\n")
@@ -0,0 +1,147 @@
+package com.unishare.util;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line load generator used to compare request executor modes.
+ * <p>
+ * Start the server once with {@code UNISHARE_EXECUTOR_MODE=platform} and once with
+ * {@code UNISHARE_EXECUTOR_MODE=virtual}, run this tool against each with the same
+ * arguments, and compare the reported throughput and p99 latency per endpoint.
+ * <pre>
+ * java -cp build\classes com.unishare.util.LoadTest [baseUrl] [concurrency] [seconds] [sessionToken] [paths...]
+ * </pre>
+ * Defaults: {@code http://localhost:8080}, 64 clients, 20 seconds, no session,
+ * paths {@code /api/auth/me /api/modules /api/monitor}.
+ */
+public final class LoadTest {
+
+    private static final List<String> DEFAULT_PATHS = List.of("/api/auth/me", "/api/modules", "/api/monitor");
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String sessionToken = args.length > 3 && !"-".equals(args[3]) ? args[3] : null;
+        List<String> paths = args.length > 4 ? Arrays.asList(args).subList(4, args.length) : DEFAULT_PATHS;
+
+        System.out.println("Load test against " + baseUrl + " with " + concurrency + " clients for " + seconds + "s");
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+
+        System.out.println(String.format(Locale.ROOT, "%-22s %10s %10s %10s %10s %10s %8s",
+                "path", "requests", "req/s", "p50 ms", "p99 ms", "max ms", "errors"));
+        for (String path : paths) {
+            Result result = run(client, baseUrl + path, sessionToken, concurrency, seconds);
+            System.out.println(String.format(Locale.ROOT, "%-22s %10d %10.1f %10.1f %10.1f %10.1f %8d",
+                    path,
+                    result.requests,
+                    result.requests / (double) seconds,
+                    result.percentile(0.50),
+                    result.percentile(0.99),
+                    result.percentile(1.0),
+                    result.errors));
+        }
+    }
+
+    private static Result run(HttpClient client, String url, String sessionToken, int concurrency, int seconds)
+            throws InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(60))
+                .GET();
+        if (sessionToken != null) {
+            builder.header("Cookie", "UNISESSION=" + sessionToken);
+        }
+        HttpRequest request = builder.build();
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        AtomicLong errors = new AtomicLong();
+        List<long[]> perClient = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+
+        for (int i = 0; i < concurrency; i++) {
+            clients.submit(() -> {
+                long[] samples = new long[1024];
+                int count = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 500) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, samples.length * 2);
+                        }
+                        samples[count++] = System.nanoTime() - start;
+                    }
+                } finally {
+                    synchronized (perClient) {
+                        perClient.add(Arrays.copyOf(samples, count));
+                    }
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        clients.shutdown();
+
+        int total = 0;
+        for (long[] samples : perClient) {
+            total += samples.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] samples : perClient) {
+            System.arraycopy(samples, 0, all, offset, samples.length);
+            offset += samples.length;
+        }
+        Arrays.sort(all);
+        return new Result(all, errors.get());
+    }
+
+    private static final class Result {
+        final long[] sortedNanos;
+        final long requests;
+        final long errors;
+
+        Result(long[] sortedNanos, long errors) {
+            this.sortedNanos = sortedNanos;
+            this.requests = sortedNanos.length;
+            this.errors = errors;
+        }
+
+        double percentile(double fraction) {
+            if (sortedNanos.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(fraction * sortedNanos.length) - 1;
+            index = Math.max(0, Math.min(index, sortedNanos.length - 1));
+            return sortedNanos[index] / 1_000_000.0;
+        }
+    }
+}
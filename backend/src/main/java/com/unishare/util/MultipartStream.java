@@ -0,0 +1,443 @@
+package com.unishare.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Single-pass streaming parser for {@code multipart/form-data} request bodies.
+ * <p>
+ * The boundary is taken from the request {@code Content-Type} header and located
+ * with a byte-level Boyer-Moore-Horspool search over a fixed-size buffer, so memory
+ * use per request is constant regardless of upload size. Parts are exposed one at a
+ * time; each part's body is an {@link InputStream} that ends at the next boundary.
+ * Advancing with {@link #nextPart()} discards whatever the caller left unread.
+ *
+ * <pre>
+ * MultipartStream multipart = MultipartStream.open(contentType, exchange.getRequestBody());
+ * Map&lt;String, String&gt; fields = multipart.readLeadingFields(4096);
+ * for (MultipartStream.Part part; (part = multipart.nextPart()) != null; ) {
+ *     if (part.isFile()) {
+ *         consume(part.getInputStream());
+ *     }
+ * }
+ * </pre>
+ */
+public final class MultipartStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    private final InputStream input;
+    private final byte[] delimiter;
+    private final int[] skipTable;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private int searchedUpTo;
+    private int matchIndex = -1;
+    private boolean eof;
+    private boolean finished;
+    private Part current;
+    private Part pending;
+
+    private MultipartStream(InputStream input, String boundary) {
+        this.input = input;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.skipTable = buildSkipTable(delimiter);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 4)];
+        // Seed a CRLF so the first boundary matches the same delimiter as the rest.
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.tail = 2;
+    }
+
+    /**
+     * Creates a parser for the given request body.
+     *
+     * @throws IOException if the content type is not multipart or lacks a boundary
+     */
+    public static MultipartStream open(String contentType, InputStream input) throws IOException {
+        String boundary = extractBoundary(contentType);
+        if (boundary == null) {
+            throw new IOException("Missing multipart boundary in Content-Type: " + contentType);
+        }
+        return new MultipartStream(input, boundary);
+    }
+
+    /**
+     * Returns the {@code boundary} parameter of a {@code multipart/*} content type,
+     * or {@code null} if absent.
+     */
+    public static String extractBoundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        String boundary = headerParameter(contentType, "boundary");
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            return null;
+        }
+        return boundary;
+    }
+
+    /**
+     * Reads consecutive non-file parts as UTF-8 strings. Stops at the first file
+     * part, which is returned by the next call to {@link #nextPart()}.
+     *
+     * @param maxFieldBytes maximum accepted size of a single field value
+     */
+    public Map<String, String> readLeadingFields(int maxFieldBytes) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Part part;
+        while ((part = nextPart()) != null) {
+            if (part.isFile()) {
+                pending = part;
+                break;
+            }
+            if (part.getName() != null) {
+                fields.put(part.getName(), part.readString(maxFieldBytes));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Advances to the next part, discarding any unread bytes of the current one.
+     *
+     * @return the next part, or {@code null} once the closing boundary is reached
+     */
+    public Part nextPart() throws IOException {
+        if (pending != null) {
+            Part next = pending;
+            pending = null;
+            return next;
+        }
+        if (finished) {
+            return null;
+        }
+        if (current != null) {
+            current.body.drain();
+        } else {
+            skipPreamble();
+        }
+
+        // Positioned directly after a delimiter: "--" closes the body, otherwise CRLF.
+        if (!ensure(2)) {
+            throw new IOException("Unexpected end of multipart stream");
+        }
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        skipLineRemainder();
+
+        Map<String, String> headers = readHeaders();
+        current = new Part(headers, new PartInputStream());
+        return current;
+    }
+
+    private void skipPreamble() throws IOException {
+        while (true) {
+            int match = indexOfDelimiter();
+            if (match >= 0) {
+                consumeDelimiter(match);
+                return;
+            }
+            int keep = Math.min(tail - head, delimiter.length - 1);
+            head = tail - keep;
+            if (!fill()) {
+                throw new IOException("Multipart boundary not found");
+            }
+        }
+    }
+
+    private void skipLineRemainder() throws IOException {
+        // Transport padding (whitespace) is allowed between the boundary and CRLF.
+        while (true) {
+            if (!ensure(1)) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+            byte b = buffer[head++];
+            if (b == '\n') {
+                return;
+            }
+        }
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int total = 0;
+        while (true) {
+            if (!ensure(1)) {
+                throw new IOException("Unexpected end of multipart headers");
+            }
+            byte b = buffer[head++];
+            if (++total > MAX_HEADER_BYTES) {
+                throw new IOException("Multipart part headers too large");
+            }
+            if (b == '\n') {
+                String text = line.toString(StandardCharsets.UTF_8).trim();
+                line.reset();
+                if (text.isEmpty()) {
+                    return headers;
+                }
+                int colon = text.indexOf(':');
+                if (colon > 0) {
+                    headers.put(text.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            text.substring(colon + 1).trim());
+                }
+            } else if (b != '\r') {
+                line.write(b);
+            }
+        }
+    }
+
+    /**
+     * Makes sure at least {@code count} unread bytes are buffered.
+     *
+     * @return false if the stream ended first
+     */
+    private boolean ensure(int count) throws IOException {
+        while (tail - head < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compacts the buffer and reads more input.
+     *
+     * @return false once the underlying stream is exhausted
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            searchedUpTo = Math.max(0, searchedUpTo - head);
+            if (matchIndex >= 0) {
+                matchIndex -= head;
+            }
+            head = 0;
+        }
+        int read = input.read(buffer, tail, buffer.length - tail);
+        if (read == -1) {
+            eof = true;
+            return false;
+        }
+        tail += read;
+        return true;
+    }
+
+    /**
+     * Finds the next delimiter at or after {@code head}. Already-scanned bytes are
+     * not searched again, so small reads over a large buffer stay linear.
+     */
+    private int indexOfDelimiter() {
+        if (matchIndex >= head) {
+            return matchIndex;
+        }
+        matchIndex = -1;
+        int last = delimiter.length - 1;
+        int i = Math.max(head, searchedUpTo);
+        while (i + last < tail) {
+            int j = last;
+            while (j >= 0 && buffer[i + j] == delimiter[j]) {
+                j--;
+            }
+            if (j < 0) {
+                matchIndex = i;
+                return i;
+            }
+            i += skipTable[buffer[i + last] & 0xFF];
+        }
+        searchedUpTo = Math.max(head, tail - last);
+        return -1;
+    }
+
+    private void consumeDelimiter(int match) {
+        head = match + delimiter.length;
+        matchIndex = -1;
+        searchedUpTo = head;
+    }
+
+    private static int[] buildSkipTable(byte[] pattern) {
+        int[] table = new int[256];
+        Arrays.fill(table, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            table[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+        return table;
+    }
+
+    static String headerParameter(String headerValue, String parameter) {
+        if (headerValue == null) {
+            return null;
+        }
+        String[] segments = headerValue.split(";(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+        for (int i = 1; i < segments.length; i++) {
+            String segment = segments[i].trim();
+            int equals = segment.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            String key = segment.substring(0, equals).trim();
+            if (!key.equalsIgnoreCase(parameter)) {
+                continue;
+            }
+            String value = segment.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * One part of the multipart body.
+     */
+    public static final class Part {
+        private final Map<String, String> headers;
+        private final PartInputStream body;
+        private final String name;
+        private final String filename;
+
+        private Part(Map<String, String> headers, PartInputStream body) {
+            this.headers = headers;
+            this.body = body;
+            String disposition = headers.get("content-disposition");
+            this.name = headerParameter(disposition, "name");
+            String rawFilename = headerParameter(disposition, "filename");
+            this.filename = rawFilename != null ? stripPath(rawFilename) : null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public boolean isFile() {
+            return filename != null;
+        }
+
+        public String getContentType() {
+            return headers.getOrDefault("content-type", isFile() ? "application/octet-stream" : "text/plain");
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        /**
+         * Streams the part body. The stream ends at the next boundary; closing it
+         * skips the rest of the part.
+         */
+        public InputStream getInputStream() {
+            return body;
+        }
+
+        /**
+         * Reads the whole part as UTF-8.
+         *
+         * @throws IOException if the value exceeds {@code maxBytes}
+         */
+        public String readString(int maxBytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, 256));
+            byte[] chunk = new byte[512];
+            int read;
+            while ((read = body.read(chunk)) != -1) {
+                if (out.size() + read > maxBytes) {
+                    throw new IOException("Multipart field '" + name + "' exceeds " + maxBytes + " bytes");
+                }
+                out.write(chunk, 0, read);
+            }
+            return out.toString(StandardCharsets.UTF_8).trim();
+        }
+
+        private static String stripPath(String filename) {
+            // Some browsers send the full client path (C:\fakepath\...)
+            int slash = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+            return slash >= 0 ? filename.substring(slash + 1) : filename;
+        }
+    }
+
+    /**
+     * Body of the current part; reads from the shared buffer up to the next delimiter.
+     */
+    private final class PartInputStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                int match = indexOfDelimiter();
+                int available;
+                if (match >= 0) {
+                    available = match - head;
+                    if (available == 0) {
+                        consumeDelimiter(match);
+                        done = true;
+                        return -1;
+                    }
+                } else {
+                    // Hold back a possible partial delimiter at the end of the buffer.
+                    available = tail - head - (delimiter.length - 1);
+                }
+                if (available > 0) {
+                    int count = Math.min(available, length);
+                    System.arraycopy(buffer, head, target, offset, count);
+                    head += count;
+                    return count;
+                }
+                if (!fill()) {
+                    throw new IOException("Unexpected end of multipart stream");
+                }
+            }
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+        }
+
+        void drain() throws IOException {
+            byte[] skip = new byte[8192];
+            while (read(skip, 0, skip.length) != -1) {
+                // discard
+            }
+        }
+    }
+}
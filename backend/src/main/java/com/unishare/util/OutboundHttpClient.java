@@ -0,0 +1,195 @@
+package com.unishare.util;
+
+import com.unishare.config.ServerConfig;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared outbound HTTP client for Cloudinary traffic.
+ * <p>
+ * One {@link HttpClient} is used for every upload, delete and download, so TLS
+ * sessions and connections are kept alive and reused; HTTPS hosts that support it
+ * are spoken to over HTTP/2, multiplexing concurrent requests on one connection.
+ * Timeouts and the JDK connection pool are configurable through
+ * {@code UNISHARE_HTTP_*} variables. Request counts, concurrency, protocol and
+ * time-to-headers latency are tracked per host.
+ */
+public final class OutboundHttpClient {
+
+    private static final String CONNECT_TIMEOUT_ENV = "UNISHARE_HTTP_CONNECT_TIMEOUT_MS";
+    private static final String REQUEST_TIMEOUT_ENV = "UNISHARE_HTTP_REQUEST_TIMEOUT_MS";
+    private static final String POOL_SIZE_ENV = "UNISHARE_HTTP_POOL_SIZE";
+    private static final String KEEPALIVE_ENV = "UNISHARE_HTTP_KEEPALIVE_SECONDS";
+    private static final String USER_AGENT = "UniShare/1.0";
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final Map<String, HostMetrics> hosts = new ConcurrentSkipListMap<>();
+
+    private OutboundHttpClient() {
+        // The JDK reads its pool settings once, when the first client is created
+        int poolSize = ServerConfig.readPositiveInt(POOL_SIZE_ENV, 0);
+        if (poolSize > 0) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(poolSize));
+        }
+        int keepAlive = ServerConfig.readPositiveInt(KEEPALIVE_ENV, 300);
+        System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(keepAlive));
+
+        ExecutorService executor = RequestExecutors.newVirtualOrFixed("outbound-http",
+                Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+
+        Duration connectTimeout = Duration.ofMillis(ServerConfig.readPositiveInt(CONNECT_TIMEOUT_ENV, 10_000));
+        this.requestTimeout = Duration.ofMillis(ServerConfig.readPositiveInt(REQUEST_TIMEOUT_ENV, 300_000));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+        System.out.println("✅ Outbound HTTP client ready (HTTP/2, connect timeout " + connectTimeout.toMillis()
+                + " ms, request timeout " + requestTimeout.toMillis() + " ms, keep-alive " + keepAlive + " s)");
+    }
+
+    public static OutboundHttpClient shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Starts a request with the default timeout and user agent.
+     */
+    public HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("User-Agent", USER_AGENT);
+    }
+
+    /**
+     * Sends a request, recording its outcome against the target host. For streaming
+     * body handlers the call returns, and latency is measured, once the response
+     * headers arrive.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        HostMetrics metrics = metricsFor(request.uri());
+        metrics.started();
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = client.send(request, handler);
+            metrics.completed(response.version(), System.nanoTime() - start);
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.failed();
+            throw new InterruptedIOException("Interrupted calling " + request.uri().getHost());
+        } catch (IOException | RuntimeException e) {
+            metrics.failed();
+            throw e;
+        } finally {
+            metrics.finished();
+        }
+    }
+
+    /**
+     * Sends a request without blocking. The future completes once the body handler's
+     * subscriber has consumed the body; latency is still measured to the headers.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> handler) {
+        HostMetrics metrics = metricsFor(request.uri());
+        metrics.started();
+        long start = System.nanoTime();
+        HttpResponse.BodyHandler<T> timed = info -> {
+            metrics.completed(info.version(), System.nanoTime() - start);
+            return handler.apply(info);
+        };
+        return client.sendAsync(request, timed).whenComplete((response, failure) -> {
+            if (failure != null) {
+                metrics.failed();
+            }
+            metrics.finished();
+        });
+    }
+
+    public List<HostStats> getStats() {
+        List<HostStats> stats = new ArrayList<>(hosts.size());
+        hosts.forEach((host, metrics) -> stats.add(metrics.snapshot(host)));
+        return stats;
+    }
+
+    private HostMetrics metricsFor(URI uri) {
+        String host = uri.getHost() != null ? uri.getHost() : "unknown";
+        return hosts.computeIfAbsent(host, h -> new HostMetrics());
+    }
+
+    private static final class Holder {
+        static final OutboundHttpClient INSTANCE = new OutboundHttpClient();
+    }
+
+    private static final class HostMetrics {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong http2Responses = new AtomicLong();
+        final AtomicLong latencyNanos = new AtomicLong();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        void started() {
+            requests.incrementAndGet();
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        }
+
+        void completed(HttpClient.Version version, long nanos) {
+            if (version == HttpClient.Version.HTTP_2) {
+                http2Responses.incrementAndGet();
+            }
+            latencyNanos.addAndGet(nanos);
+            maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void failed() {
+            failures.incrementAndGet();
+        }
+
+        void finished() {
+            inFlight.decrementAndGet();
+        }
+
+        HostStats snapshot(String host) {
+            long total = requests.get();
+            long failed = failures.get();
+            long answered = total - failed - inFlight.get();
+            double avgMillis = answered > 0 ? latencyNanos.get() / 1e6 / answered : 0.0;
+            return new HostStats(host, total, failed, inFlight.get(), peakInFlight.get(), http2Responses.get(),
+                    avgMillis, maxLatencyNanos.get() / 1e6);
+        }
+    }
+
+    /**
+     * Point-in-time counters for one host. Latencies are time to response headers.
+     */
+    public record HostStats(String host, long requests, long failures, int inFlight, int peakInFlight,
+                            long http2Responses, double avgLatencyMillis, double maxLatencyMillis) {
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"host\":\"%s\",\"requests\":%d,\"failures\":%d,\"inFlight\":%d,\"peakInFlight\":%d," +
+                            "\"http2Responses\":%d,\"avgLatencyMillis\":%.1f,\"maxLatencyMillis\":%.1f}",
+                    JsonUtils.escape(host), requests, failures, inFlight, peakInFlight, http2Responses,
+                    avgLatencyMillis, maxLatencyMillis);
+        }
+    }
+}
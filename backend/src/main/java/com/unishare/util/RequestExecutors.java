@@ -0,0 +1,218 @@
+package com.unishare.util;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.unishare.config.ServerConfig;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the executor used by the HTTP server to run each {@code HttpExchange}.
+ * <p>
+ * Two modes are supported:
+ * <ul>
+ * <li>{@code virtual} - one virtual thread per exchange, so slow Cloudinary or
+ * database calls never starve cheap requests. Requires a JDK with virtual
+ * threads (21+); older runtimes fall back to the platform pool.</li>
+ * <li>{@code platform} - a bounded pool of platform threads with a bounded
+ * queue. When the queue is full the exchange is handed to a few shedding
+ * threads that only answer {@code 503} with {@code Retry-After}, so the
+ * dispatcher thread keeps accepting connections and no handler runs on it.
+ * When the shedding queue is full too, the connection is closed without a
+ * response.</li>
+ * </ul>
+ * The 503 is written by {@link #overloadFilter()}, which must be added to every
+ * context.
+ */
+public final class RequestExecutors {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+    // Shedding still reads each request's headers, so a slow client holds a thread
+    private static final int SHED_THREADS = 4;
+    private static final int SHED_QUEUE_CAPACITY = 64;
+
+    // Set while a shedding thread runs an exchange the pool rejected
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static final AtomicLong shedCount = new AtomicLong();
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static final Filter OVERLOAD_FILTER = new OverloadFilter();
+
+    private RequestExecutors() {
+    }
+
+    public static ExecutorService fromConfig() {
+        String mode = ServerConfig.getExecutorMode();
+        if ("platform".equals(mode)) {
+            return newPlatformExecutor(ServerConfig.getPlatformThreads(), ServerConfig.getPlatformQueueCapacity());
+        }
+        if (!"virtual".equals(mode)) {
+            System.err.println("⚠️ Unknown executor mode '" + mode + "', using virtual threads");
+        }
+
+        ExecutorService virtual = newVirtualExecutor();
+        if (virtual != null) {
+            System.out.println("🧵 Request executor: virtual thread per exchange");
+            return virtual;
+        }
+
+        System.err.println("⚠️ Virtual threads unavailable on this JDK, falling back to platform pool");
+        return newPlatformExecutor(ServerConfig.getPlatformThreads(), ServerConfig.getPlatformQueueCapacity());
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor, or {@code null} when the running
+     * JDK does not support virtual threads. Resolved reflectively so the sources
+     * still compile on JDK 17.
+     */
+    public static ExecutorService newVirtualExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor where supported, otherwise a fixed
+     * pool of daemon threads. For work that mostly waits on non-blocking I/O, where
+     * a cached pool would grow a platform thread per transfer under a burst.
+     */
+    public static ExecutorService newVirtualOrFixed(String name, int threads) {
+        ExecutorService virtual = newVirtualExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ExecutorService newPlatformExecutor(int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory("http-worker"),
+                new ShedOnOverload());
+        executor.allowCoreThreadTimeOut(true);
+        System.out.println("🧵 Request executor: platform pool (" + threads + " threads, queue " + queueCapacity + ")");
+        return executor;
+    }
+
+    /**
+     * Filter answering exchanges rejected by the platform pool with
+     * {@code 503 Service Unavailable}; passes everything else through.
+     */
+    public static Filter overloadFilter() {
+        return OVERLOAD_FILTER;
+    }
+
+    public static long getShedCount() {
+        return shedCount.get();
+    }
+
+    /**
+     * Connections closed without a response because the shedding queue was full.
+     */
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Runs rejected exchanges on a small bounded pool, flagged so that
+     * {@link OverloadFilter} answers them without calling the handler. When that
+     * pool is saturated as well, the rejection is rethrown: the server's dispatcher
+     * closes the connection when its executor throws, which costs nothing and keeps
+     * queued 503s from piling up behind slow clients.
+     */
+    private static final class ShedOnOverload implements RejectedExecutionHandler {
+        private final ThreadPoolExecutor shedding = new ThreadPoolExecutor(
+                SHED_THREADS,
+                SHED_THREADS,
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(SHED_QUEUE_CAPACITY),
+                new NamedThreadFactory("http-overload"));
+
+        ShedOnOverload() {
+            shedding.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void rejectedExecution(Runnable exchange, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Request executor shut down");
+            }
+            try {
+                shedding.execute(() -> {
+                    SHEDDING.set(Boolean.TRUE);
+                    try {
+                        exchange.run();
+                    } finally {
+                        SHEDDING.set(Boolean.FALSE);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                droppedCount.incrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private static final class OverloadFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (!SHEDDING.get()) {
+                chain.doFilter(exchange);
+                return;
+            }
+            shedCount.incrementAndGet();
+            try {
+                exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                HttpResponses.sendError(exchange, 503, "Server busy, retry shortly");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Answers 503 for exchanges shed by the request executor";
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.unishare.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free sliding-window byte counter.
+ * <p>
+ * Bytes are added to a ring of per-second slots. Each slot packs the second it
+ * belongs to with its byte count in one {@code long}, so a writer moving a slot on
+ * to a new second and writers adding to it race only through compare-and-set.
+ * Rates are averaged over whole seconds that have already ended, so they do not
+ * dip at the start of every second.
+ */
+public final class ThroughputMeter {
+
+    private static final int SLOTS = 64;
+    private static final int MAX_WINDOW_SECONDS = SLOTS - 2;
+    private static final int COUNT_BITS = 40;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long STAMP_MASK = (1L << (Long.SIZE - COUNT_BITS)) - 1;
+
+    private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final long origin = System.nanoTime();
+
+    public void record(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        totalBytes.addAndGet(bytes);
+        long second = currentSecond();
+        int index = (int) (second % SLOTS);
+        long stamp = second & STAMP_MASK;
+        while (true) {
+            long current = slots.get(index);
+            long updated = stampOf(current) == stamp
+                    ? current + Math.min(bytes, COUNT_MASK - countOf(current))
+                    : (stamp << COUNT_BITS) | Math.min(bytes, COUNT_MASK);
+            if (slots.compareAndSet(index, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Average bytes per second over the last {@code seconds} completed seconds.
+     */
+    public long rate(int seconds) {
+        int window = Math.max(1, Math.min(seconds, MAX_WINDOW_SECONDS));
+        long now = currentSecond();
+        long sum = 0;
+        for (long second = now - window; second < now; second++) {
+            if (second < 0) {
+                continue;
+            }
+            long slot = slots.get((int) (second % SLOTS));
+            if (stampOf(slot) == (second & STAMP_MASK)) {
+                sum += countOf(slot);
+            }
+        }
+        return sum / window;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(rate(1), rate(10), rate(60), totalBytes.get());
+    }
+
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - origin);
+    }
+
+    private static long stampOf(long slot) {
+        return slot >>> COUNT_BITS;
+    }
+
+    private static long countOf(long slot) {
+        return slot & COUNT_MASK;
+    }
+
+    /**
+     * Rates in bytes per second over the last 1, 10 and 60 seconds.
+     */
+    public record Snapshot(long last1s, long last10s, long last60s, long totalBytes) {
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"last1s\":%d,\"last10s\":%d,\"last60s\":%d,\"totalBytes\":%d}",
+                    last1s, last10s, last60s, totalBytes);
+        }
+    }
+
+    /**
+     * Exponentially weighted moving average of one transfer's rate. Samples are
+     * taken at most every {@code SAMPLE_NANOS}; older samples fade with a time
+     * constant of {@code TIME_CONSTANT_NANOS}, whatever the sampling cadence.
+     * Written by the thread doing the transfer, read by anyone.
+     */
+    public static final class Ewma {
+        private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+        private static final double TIME_CONSTANT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+        private long lastSample;
+        private long pendingBytes;
+        private boolean started;
+        private boolean primed;
+        private volatile double bytesPerSecond;
+
+        public void record(long bytes) {
+            long now = System.nanoTime();
+            if (!started) {
+                // Time from the first bytes, not from whenever the transfer was set up;
+                // those bytes took an unknown time to arrive, so they are not counted
+                started = true;
+                lastSample = now;
+                return;
+            }
+            pendingBytes += bytes;
+            long elapsed = now - lastSample;
+            if (elapsed < SAMPLE_NANOS) {
+                return;
+            }
+            double instant = pendingBytes * 1e9 / elapsed;
+            if (primed) {
+                double alpha = 1 - Math.exp(-elapsed / TIME_CONSTANT_NANOS);
+                bytesPerSecond += alpha * (instant - bytesPerSecond);
+            } else {
+                bytesPerSecond = instant;
+                primed = true;
+            }
+            pendingBytes = 0;
+            lastSample = now;
+        }
+
+        public long getRate() {
+            return (long) bytesPerSecond;
+        }
+
+        /**
+         * Seconds until {@code remainingBytes} are through at the current rate, or
+         * -1 while no rate has been measured yet.
+         */
+        public long estimateSeconds(long remainingBytes) {
+            double rate = bytesPerSecond;
+            if (rate <= 0) {
+                return -1;
+            }
+            return (long) Math.ceil(Math.max(remainingBytes, 0) / rate);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.unishare.util;
+
+/**
+ * Thread-safe token bucket measured in bytes.
+ * <p>
+ * Tokens refill continuously at the configured rate up to one second's worth of
+ * burst. {@link #reserve(long)} always succeeds and may drive the balance negative;
+ * the returned delay is how long the caller must wait for the debt to be repaid.
+ * A rate of 0 disables the bucket.
+ */
+public final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // All fields guarded by "this"
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+    private long lastUsed;
+
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+        this.lastUsed = lastRefill;
+    }
+
+    /**
+     * Takes {@code bytes} tokens.
+     *
+     * @return nanoseconds to wait before sending, 0 if the bytes may go now
+     */
+    public synchronized long reserve(long bytes) {
+        long now = System.nanoTime();
+        lastUsed = now;
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        refill(now);
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = Math.min(tokens, bytesPerSecond);
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Nanosecond timestamp of the last {@link #reserve(long)}.
+     */
+    public synchronized long getLastUsed() {
+        return lastUsed;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        lastRefill = now;
+        if (bytesPerSecond > 0 && elapsed > 0) {
+            tokens = Math.min(bytesPerSecond, tokens + (double) elapsed * bytesPerSecond / NANOS_PER_SECOND);
+        }
+    }
+}
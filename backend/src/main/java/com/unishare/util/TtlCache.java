@@ -0,0 +1,132 @@
+package com.unishare.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe LRU cache whose entries expire after a per-entry TTL.
+ * <p>
+ * Read-through callers should take a {@link #stamp()} before loading a value and
+ * store it with {@link #putIfUnchanged(Object, Object, long, long)}; if the cache
+ * was invalidated while the load was in flight the stale result is dropped.
+ */
+public final class TtlCache<K, V> {
+
+    private final int maxEntries;
+    private final Map<K, Entry<V>> entries;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public TtlCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > TtlCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value, or {@code null} if absent or expired.
+     */
+    public V get(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(K key, V value, long ttlMillis) {
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Current invalidation stamp, to be passed to {@link #putIfUnchanged}.
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Stores a loaded value unless an invalidation happened since {@code stamp}.
+     */
+    public void putIfUnchanged(K key, V value, long ttlMillis, long stamp) {
+        synchronized (entries) {
+            if (invalidations.get() == stamp) {
+                entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public Stats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(size, maxEntries, hits.get(), misses.get(), evictions.get(), expirations.get());
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Point-in-time cache counters.
+     */
+    public record Stats(int size, int maxEntries, long hits, long misses, long evictions, long expirations) {
+
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0.0 : (double) hits / lookups;
+        }
+
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"size\":%d,\"maxEntries\":%d,\"hits\":%d,\"misses\":%d,\"evictions\":%d,\"expirations\":%d,\"hitRatio\":%.3f}",
+                    size, maxEntries, hits, misses, evictions, expirations, hitRatio());
+        }
+    }
+}
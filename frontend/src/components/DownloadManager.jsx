@@ -135,6 +135,7 @@ const DownloadManager = ({ isOpen, onClose }) => {
                         <div className="font-medium">{download.filename}</div>
                         <div className="text-sm text-gray-500">
                           {getStatusText(download.status)}
+                          {download.status === 'queued' && download.queuePosition > 0 && ` (#${download.queuePosition} in line)`}
                           {download.error && ` - ${download.error}`}
                         </div>
                       </div>
@@ -90,7 +90,13 @@ const FileUploader = ({ initialModule, onUploaded }) => {
       });
 
       const uploadedFiles = response.data?.files || [];
-      toast.success(`Uploaded ${uploadedFiles.length} file(s) successfully!`);
+      const failures = response.data?.failures || [];
+      if (uploadedFiles.length > 0) {
+        toast.success(`Uploaded ${uploadedFiles.length} file(s) successfully!`);
+      }
+      failures.forEach((failure) => {
+        toast.error(`${failure.filename}: ${failure.error}`);
+      });
       setSelectedFiles([]);
       setSelectedModule("");
       if (typeof onUploaded === "function") {
@@ -6,8 +6,9 @@ import {
   Eye,
   Download,
   Trash2,
+  FolderDown,
 } from "lucide-react";
-import api from "../services/api";
+import api, { API_BASE_URL } from "../services/api";
 import toast from "react-hot-toast";
 import { useAuth } from "../context/AuthContext";
 import { downloadService } from "../services/downloadService";
@@ -16,7 +17,10 @@ import DownloadManager from "./DownloadManager";
 const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
   const { user } = useAuth();
   const [files, setFiles] = useState([]);
+  const [totalFiles, setTotalFiles] = useState(0);
+  const [nextCursor, setNextCursor] = useState(null);
   const [loading, setLoading] = useState(true);
+  const [loadingMore, setLoadingMore] = useState(false);
   const [search, setSearch] = useState("");
   const [downloadManagerOpen, setDownloadManagerOpen] = useState(false);
   const [downloadingId, setDownloadingId] = useState(null);
@@ -33,10 +37,11 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
           signal: abortController.signal,
         });
         if (data && Array.isArray(data.files)) {
-          setFiles(data.files);
+          applyPage(data, false);
         } else {
           console.warn("Unexpected response format:", data);
           setFiles([]);
+          setNextCursor(null);
         }
       } catch (e) {
         // Don't show error if request was cancelled (component unmounted or module changed)
@@ -46,6 +51,7 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
             toast.error("Failed to load files for module");
           }
           setFiles([]);
+          setNextCursor(null);
         }
       } finally {
         if (!abortController.signal.aborted) {
@@ -61,6 +67,32 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
       abortController.abort();
     };
   }, [module, refreshKey]);
+
+  const applyPage = (data, append) => {
+    const page = Array.isArray(data?.files) ? data.files : [];
+    setFiles((current) => (append ? [...current, ...page] : page));
+    setNextCursor(data?.nextCursor ?? null);
+    if (typeof data?.module?.fileCount === "number") {
+      setTotalFiles(data.module.fileCount);
+    }
+  };
+
+  const handleLoadMore = async () => {
+    if (!nextCursor || loadingMore) return;
+    setLoadingMore(true);
+    try {
+      const { data } = await api.get(`/api/modules/${module.code}`, {
+        params: { cursor: nextCursor },
+      });
+      applyPage(data, true);
+    } catch (e) {
+      console.error("Failed to load more files", e);
+      toast.error("Failed to load more files");
+    } finally {
+      setLoadingMore(false);
+    }
+  };
+
   const handleDelete = async (file) => {
     if (!file.id) {
       toast.error("Cannot delete: missing file id");
@@ -76,9 +108,9 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
     try {
       await api.delete(`/api/files/${file.id}`);
       toast.success("File deleted");
-      // Refetch
+      // Refetch from the first page
       const { data } = await api.get(`/api/modules/${module.code}`);
-      setFiles(data.files || []);
+      applyPage(data, false);
     } catch (e) {
       console.error("Delete failed", e);
       toast.error("Failed to delete file");
@@ -180,7 +212,8 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
         <h1 className="text-2xl font-bold text-gray-800">
           {module.name}
           <span className="ml-3 text-sm font-medium text-blue-600 bg-blue-50 px-2 py-1 rounded-full align-middle">
-            {files.length} file{files.length !== 1 && "s"}
+            {Math.max(totalFiles, files.length)} file
+            {Math.max(totalFiles, files.length) !== 1 && "s"}
           </span>
         </h1>
       </div>
@@ -205,6 +238,13 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
           >
             <Download size={18} className="mr-2" /> Downloads
           </button>
+          {/* Navigating to the archive lets the browser stream the ZIP to disk */}
+          <a
+            href={`${API_BASE_URL}/api/modules/${encodeURIComponent(module.code)}/archive`}
+            className="px-5 py-2 rounded-lg bg-indigo-600 text-white font-medium flex items-center hover:bg-indigo-700 shadow"
+          >
+            <FolderDown size={18} className="mr-2" /> Download All
+          </a>
       </div>
       <div className="bg-white rounded-lg shadow overflow-hidden">
         <table className="w-full">
@@ -303,6 +343,17 @@ const ModuleFiles = ({ module, onUploadClick, onBack, refreshKey }) => {
             ))}
           </tbody>
         </table>
+        {nextCursor && (
+          <div className="p-4 text-center border-t border-gray-200">
+            <button
+              onClick={handleLoadMore}
+              disabled={loadingMore}
+              className="px-4 py-2 rounded-lg border border-gray-300 text-gray-700 text-sm font-medium hover:bg-gray-50 disabled:opacity-60 disabled:cursor-not-allowed"
+            >
+              {loadingMore ? "Loading..." : "Load more"}
+            </button>
+          </div>
+        )}
       </div>
 
       {/* Download Manager Modal */}
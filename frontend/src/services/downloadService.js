@@ -51,9 +51,43 @@ class DownloadService {
   }
 
   /**
-   * Monitor download progress
+   * Monitor download progress over a Server-Sent Events stream, falling back to
+   * polling when the stream cannot be opened.
    */
-  async monitorProgress(sessionId) {
+  monitorProgress(sessionId) {
+    if (typeof EventSource === 'undefined') {
+      this.pollProgress(sessionId);
+      return;
+    }
+
+    const source = new EventSource(`${API_BASE_URL}/api/download-events/${sessionId}`, {
+      withCredentials: true
+    });
+    let finished = false;
+
+    const handleEvent = (event) => {
+      const status = JSON.parse(event.data);
+      this.applyStatus(sessionId, status);
+      if (status.status !== 'downloading' && status.status !== 'starting' && status.status !== 'queued') {
+        finished = true;
+        source.close();
+        this.handleFinished(sessionId, status);
+      }
+    };
+
+    ['progress', 'completed', 'failed', 'cancelled'].forEach(type => source.addEventListener(type, handleEvent));
+    source.onerror = () => {
+      if (finished) return;
+      // Stream unavailable or dropped: continue with polling
+      source.close();
+      this.pollProgress(sessionId);
+    };
+  }
+
+  /**
+   * Monitor download progress by polling the status endpoint
+   */
+  async pollProgress(sessionId) {
     const monitor = async () => {
       try {
         const response = await fetch(`${API_BASE_URL}/api/download-status/${sessionId}`, {
@@ -66,28 +100,13 @@ class DownloadService {
         }
 
         const status = await response.json();
-        
-        // Update local cache
-        const download = this.activeDownloads.get(sessionId);
-        if (download) {
-          Object.assign(download, status);
-          this.activeDownloads.set(sessionId, download);
-        }
-
-        // Notify listeners
-        this.notifyListeners(sessionId, status);
+        this.applyStatus(sessionId, status);
 
         // Continue monitoring if still in progress
         if (status.status === 'downloading' || status.status === 'starting' || status.status === 'queued') {
           setTimeout(monitor, 1000); // Check every second
-        } else if (status.status === 'completed') {
-          // Auto-download the completed file
-          this.downloadCompletedFile(sessionId);
-          // Auto-cleanup completed downloads after 30 seconds
-          setTimeout(() => this.removeDownload(sessionId), 30000);
         } else {
-          // Remove failed or cancelled downloads after 10 seconds
-          setTimeout(() => this.removeDownload(sessionId), 10000);
+          this.handleFinished(sessionId, status);
         }
       } catch (error) {
         console.error('Progress monitoring failed:', error);
@@ -98,6 +117,30 @@ class DownloadService {
     monitor();
   }
 
+  /**
+   * Store a status update and notify listeners
+   */
+  applyStatus(sessionId, status) {
+    const download = this.activeDownloads.get(sessionId);
+    if (download) {
+      Object.assign(download, status);
+      this.activeDownloads.set(sessionId, download);
+    }
+    this.notifyListeners(sessionId, status);
+  }
+
+  handleFinished(sessionId, status) {
+    if (status.status === 'completed') {
+      // Auto-download the completed file
+      this.downloadCompletedFile(sessionId);
+      // Auto-cleanup completed downloads after 30 seconds
+      setTimeout(() => this.removeDownload(sessionId), 30000);
+    } else {
+      // Remove failed or cancelled downloads after 10 seconds
+      setTimeout(() => this.removeDownload(sessionId), 10000);
+    }
+  }
+
   /**
    * Download completed file from session
    */
@@ -110,20 +153,9 @@ class DownloadService {
       }
 
       // Get the file content from the download session
-      const response = await fetch(`${API_BASE_URL}/api/download-file/${sessionId}`, {
-        method: 'GET',
-        headers: {
-          'Accept': 'application/octet-stream'
-        },
-        credentials: 'include'
-      });
-
-      if (!response.ok) {
-        throw new Error(`File download failed: ${response.status}`);
-      }
+      const blob = await this.fetchSessionFile(`${API_BASE_URL}/api/download-file/${sessionId}`);
 
       // Create download link
-      const blob = await response.blob();
       const url = window.URL.createObjectURL(blob);
       const a = document.createElement('a');
       a.href = url;
@@ -141,6 +173,61 @@ class DownloadService {
     }
   }
 
+  /**
+   * Fetch a completed session's file. If the connection drops part-way, the
+   * transfer resumes from the last received byte with a Range request.
+   */
+  async fetchSessionFile(url, maxAttempts = 3) {
+    const chunks = [];
+    let received = 0;
+    let etag = null;
+    let contentType = 'application/octet-stream';
+
+    for (let attempt = 1; ; attempt++) {
+      const headers = { 'Accept': 'application/octet-stream' };
+      if (received > 0) {
+        headers['Range'] = `bytes=${received}-`;
+        if (etag) {
+          headers['If-Range'] = etag;
+        }
+      }
+
+      let response;
+      try {
+        response = await fetch(url, { method: 'GET', headers, credentials: 'include' });
+      } catch (error) {
+        if (attempt >= maxAttempts) throw error;
+        continue;
+      }
+
+      if (!response.ok) {
+        throw new Error(`File download failed: ${response.status}`);
+      }
+      if (response.status === 200 && received > 0) {
+        // Server sent the whole file again (e.g. If-Range did not match)
+        chunks.length = 0;
+        received = 0;
+      }
+      etag = response.headers.get('ETag') || etag;
+      contentType = response.headers.get('Content-Type') || contentType;
+
+      try {
+        const reader = response.body.getReader();
+        for (;;) {
+          const { done, value } = await reader.read();
+          if (done) {
+            return new Blob(chunks, { type: contentType });
+          }
+          chunks.push(value);
+          received += value.length;
+        }
+      } catch (error) {
+        if (attempt >= maxAttempts) throw error;
+        console.warn(`Download interrupted at ${received} bytes, resuming...`);
+      }
+    }
+  }
+
   /**
    * Cancel a download
    */
@@ -273,6 +360,10 @@ class DownloadService {
     if (!download || !download.startTime || download.bytesDownloaded === 0) {
       return 0;
     }
+    // Prefer the server's smoothed rate when it has one
+    if (download.throughput > 0) {
+      return download.throughput;
+    }
 
     const timeElapsed = (Date.now() - download.startTime) / 1000; // seconds
     return download.bytesDownloaded / timeElapsed; // bytes per second
@@ -288,11 +379,12 @@ class DownloadService {
       return 'Unknown';
     }
 
-    const speed = this.calculateSpeed(sessionId);
-    if (speed === 0) return 'Unknown';
-
-    const remainingBytes = download.totalBytes - download.bytesDownloaded;
-    const eta = remainingBytes / speed; // seconds
+    let eta = download.etaSeconds; // seconds, -1 until the server has a rate
+    if (eta === undefined || eta < 0) {
+      const speed = this.calculateSpeed(sessionId);
+      if (speed === 0) return 'Unknown';
+      eta = (download.totalBytes - download.bytesDownloaded) / speed;
+    }
 
     if (eta < 60) {
       return `${Math.round(eta)}s`;